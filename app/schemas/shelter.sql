@@ -0,0 +1,34 @@
+-- The schema of the default shelter database created by PetDbHelper, as found in
+-- sqlite_master, one statement per line in the order they were created. The benchmarks build
+-- their database from it, and PetDbHelperTest fails when it no longer matches what PetDbHelper
+-- creates, so change it along with every migration.
+--
+-- The partial indexes are those of SQLite 3.8.0 and up. The last line is the version.
+
+CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, breed TEXT, gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0, photo TEXT, deleted_at INTEGER, sync_id TEXT, sync_version INTEGER NOT NULL DEFAULT 0, breed_id INTEGER REFERENCES breeds (_id));
+CREATE VIRTUAL TABLE pets_fts USING fts4(name, breed);
+CREATE TRIGGER pets_fts_delete AFTER DELETE ON pets BEGIN DELETE FROM pets_fts WHERE docid = OLD._id; END;
+CREATE TABLE imports (_id INTEGER PRIMARY KEY AUTOINCREMENT, source TEXT NOT NULL UNIQUE, rows_read INTEGER NOT NULL DEFAULT 0);
+CREATE INDEX pets_live_name_index ON pets (name COLLATE NOCASE, _id) WHERE deleted_at IS NULL;
+CREATE INDEX pets_deleted_at_index ON pets (deleted_at) WHERE deleted_at IS NOT NULL;
+CREATE INDEX pets_live_weight_index ON pets (weight, _id) WHERE deleted_at IS NULL;
+CREATE INDEX pets_live_gender_name_index ON pets (gender, name COLLATE NOCASE, _id) WHERE deleted_at IS NULL;
+CREATE INDEX pets_live_gender_weight_index ON pets (gender, weight, _id) WHERE deleted_at IS NULL;
+CREATE TABLE pet_gender_stats (gender INTEGER PRIMARY KEY, pet_count INTEGER NOT NULL DEFAULT 0, total_weight INTEGER NOT NULL DEFAULT 0);
+CREATE UNIQUE INDEX pets_sync_id_index ON pets (sync_id);
+CREATE TABLE pet_changes (_id INTEGER PRIMARY KEY AUTOINCREMENT, sync_id TEXT NOT NULL, sync_version INTEGER NOT NULL);
+CREATE INDEX pet_changes_sync_id_index ON pet_changes (sync_id, _id);
+CREATE TABLE sync_state (pulled_version INTEGER NOT NULL DEFAULT 0);
+CREATE TABLE breeds (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL UNIQUE COLLATE NOCASE);
+CREATE INDEX pets_live_breed_id_name_index ON pets (breed_id, name COLLATE NOCASE, _id) WHERE deleted_at IS NULL;
+CREATE TABLE pet_breed_stats (breed_id INTEGER PRIMARY KEY, pet_count INTEGER NOT NULL DEFAULT 0);
+CREATE TRIGGER pets_fts_insert AFTER INSERT ON pets BEGIN INSERT INTO pets_fts (docid, name, breed) VALUES (NEW._id, NEW.name, (SELECT name FROM breeds WHERE _id = NEW.breed_id)); END;
+CREATE TRIGGER pets_fts_update AFTER UPDATE OF name, breed_id ON pets BEGIN UPDATE pets_fts SET name = NEW.name, breed = (SELECT name FROM breeds WHERE _id = NEW.breed_id) WHERE docid = OLD._id; END;
+CREATE TRIGGER pets_stats_insert AFTER INSERT ON pets WHEN NEW.deleted_at IS NULL BEGIN INSERT OR IGNORE INTO pet_gender_stats (gender) VALUES (NEW.gender); INSERT OR IGNORE INTO pet_breed_stats (breed_id) VALUES (IFNULL(NEW.breed_id, 0)); UPDATE pet_gender_stats SET pet_count = pet_count + 1, total_weight = total_weight + NEW.weight WHERE gender = NEW.gender; UPDATE pet_breed_stats SET pet_count = pet_count + 1 WHERE breed_id = IFNULL(NEW.breed_id, 0); END;
+CREATE TRIGGER pets_stats_delete AFTER DELETE ON pets WHEN OLD.deleted_at IS NULL BEGIN UPDATE pet_gender_stats SET pet_count = pet_count - 1, total_weight = total_weight - OLD.weight WHERE gender = OLD.gender; UPDATE pet_breed_stats SET pet_count = pet_count - 1 WHERE breed_id = IFNULL(OLD.breed_id, 0); DELETE FROM pet_breed_stats WHERE breed_id = IFNULL(OLD.breed_id, 0) AND pet_count = 0; END;
+CREATE TRIGGER pets_stats_update_old AFTER UPDATE OF gender, breed_id, weight, deleted_at ON pets WHEN OLD.deleted_at IS NULL BEGIN UPDATE pet_gender_stats SET pet_count = pet_count - 1, total_weight = total_weight - OLD.weight WHERE gender = OLD.gender; UPDATE pet_breed_stats SET pet_count = pet_count - 1 WHERE breed_id = IFNULL(OLD.breed_id, 0); DELETE FROM pet_breed_stats WHERE breed_id = IFNULL(OLD.breed_id, 0) AND pet_count = 0; END;
+CREATE TRIGGER pets_stats_update_new AFTER UPDATE OF gender, breed_id, weight, deleted_at ON pets WHEN NEW.deleted_at IS NULL BEGIN INSERT OR IGNORE INTO pet_gender_stats (gender) VALUES (NEW.gender); INSERT OR IGNORE INTO pet_breed_stats (breed_id) VALUES (IFNULL(NEW.breed_id, 0)); UPDATE pet_gender_stats SET pet_count = pet_count + 1, total_weight = total_weight + NEW.weight WHERE gender = NEW.gender; UPDATE pet_breed_stats SET pet_count = pet_count + 1 WHERE breed_id = IFNULL(NEW.breed_id, 0); END;
+CREATE VIEW pet_pending_changes AS SELECT c._id AS _id, c.sync_id AS sync_id, c.sync_version AS sync_version, p.name AS name, (SELECT name FROM breeds WHERE _id = p.breed_id) AS breed, p.gender AS gender, p.weight AS weight, (p._id IS NULL OR p.deleted_at IS NOT NULL) AS deleted FROM pet_changes c LEFT JOIN pets p ON p.sync_id = c.sync_id WHERE c._id = (SELECT MAX(_id) FROM pet_changes WHERE sync_id = c.sync_id);
+CREATE TRIGGER pets_changes_insert AFTER INSERT ON pets BEGIN INSERT INTO pet_changes (sync_id, sync_version) VALUES (NEW.sync_id, NEW.sync_version); END;
+CREATE TRIGGER pets_changes_update AFTER UPDATE OF name, breed_id, gender, weight, deleted_at ON pets BEGIN INSERT INTO pet_changes (sync_id, sync_version) VALUES (NEW.sync_id, NEW.sync_version); END;
+PRAGMA user_version = 12;
@@ -15,40 +15,68 @@
  */
 package com.example.android.pets;
 
-import android.app.LoaderManager;
+import android.app.AlertDialog;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.ArrayAdapter;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetCursorAdapter;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetFilter;
+import com.example.android.pets.data.PetImporter;
+import com.example.android.pets.data.PetPager;
+import com.example.android.pets.data.PetWriter;
+
+import java.io.IOException;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity implements PetPager.Callback {
 
     private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
 
-    // ID for the Cursor loader
-    private static final int PET_LOADER = 0;
+    // Number of pets loaded at a time
+    private static final int PAGE_SIZE = 50;
+
+    // Request code for picking a roster to import
+    private static final int REQUEST_PICK_ROSTER = 1;
+
+    // Saved instance state key of the filter, kept as the query parameters of a pets URI
+    private static final String STATE_FILTER_URI = "filter_uri";
 
     // Pet cursor adaptor, that will be initialized on create
     private static PetCursorAdapter petAdapter;
 
+    // Loads the pets page by page as the list is scrolled
+    private PetPager mPetPager;
+
+    // Shown instead of the list when there are no pets
+    private View mEmptyView;
+
+    // Which pets the list shows, and in what order
+    private PetFilter mFilter = PetFilter.ALL;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -64,24 +92,18 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Find List view resource
-        ListView petListView = (ListView) findViewById(R.id.list_view);
-
-        // Find empty view and set to pet list view
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
-
-        // Create new Pet adapter
-        // Cursor is null for now, will update within the Cursor loader
-        petAdapter = new PetCursorAdapter(this, null);
+        // Find the pet list and lay it out as a vertical list
+        RecyclerView petRecyclerView = (RecyclerView) findViewById(R.id.pet_list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        petRecyclerView.setLayoutManager(layoutManager);
+        petRecyclerView.addItemDecoration(
+                new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        petRecyclerView.setHasFixedSize(true);
 
-        // Set pet adapter to list view
-        petListView.setAdapter(petAdapter);
-
-        // Set on item click listener
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Create new Pet adapter, opening the editor for a pet when it is clicked
+        petAdapter = new PetCursorAdapter(this, new PetCursorAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onPetClick(long id) {
                 // Create an intent that will go to the edit pet activity
                 Intent editPetIntent = new Intent(CatalogActivity.this, EditorActivity.class);
 
@@ -94,8 +116,71 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Prepare the loader by either re-connecting with an existing one or creating a new one
-        getLoaderManager().initLoader(PET_LOADER, null, this);
+        // Set pet adapter to the list
+        petRecyclerView.setAdapter(petAdapter);
+
+        // Show the empty view whenever the list has no pets
+        mEmptyView = findViewById(R.id.empty_view);
+        petAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
+
+        // Only read the columns the list shows
+        mPetPager = new PetPager(getContentResolver(), PAGE_SIZE, PetEntry.PROJECTION_SUMMARY,
+                this);
+
+        // Fetch more pets when the list gets close to either end of what is loaded
+        petRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int first = layoutManager.findFirstVisibleItemPosition();
+                int last = layoutManager.findLastVisibleItemPosition();
+                if (first != RecyclerView.NO_POSITION && last != RecyclerView.NO_POSITION) {
+                    mPetPager.onScrolled(petAdapter.getItemId(first), petAdapter.getItemId(last));
+                }
+            }
+        });
+
+        // Keep the filter the list had before the activity was recreated
+        if (savedInstanceState != null) {
+            Uri filterUri = savedInstanceState.getParcelable(STATE_FILTER_URI);
+            if (filterUri != null) {
+                mFilter = PetFilter.fromUri(filterUri);
+                mPetPager.setFilter(mFilter);
+            }
+        }
+
+        // Start loading the first page of pets
+        mPetPager.start();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_FILTER_URI,
+                mFilter.appendTo(PetEntry.CONTENT_URI.buildUpon()).build());
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Detach the pages from the list before the pager closes them
+        petAdapter.swapRows(null);
+        mPetPager.stop();
+        super.onDestroy();
     }
 
     @Override
@@ -103,9 +188,135 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search the pets as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mPetPager.setSearchQuery(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mPetPager.setSearchQuery(newText);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Show a dialog to choose which pets the list shows and how they are sorted, filled in with
+     * the current filter.
+     */
+    private void showFilterDialog() {
+        View dialogView = getLayoutInflater().inflate(R.layout.dialog_filter, null);
+
+        final Spinner genderSpinner = (Spinner) dialogView.findViewById(R.id.filter_gender);
+        final EditText minWeightEditText =
+                (EditText) dialogView.findViewById(R.id.filter_min_weight);
+        final EditText maxWeightEditText =
+                (EditText) dialogView.findViewById(R.id.filter_max_weight);
+        final EditText breedEditText = (EditText) dialogView.findViewById(R.id.filter_breed);
+        final Spinner sortSpinner = (Spinner) dialogView.findViewById(R.id.filter_sort);
+        final CheckBox descendingCheckBox =
+                (CheckBox) dialogView.findViewById(R.id.filter_descending);
+
+        genderSpinner.setAdapter(createSpinnerAdapter(R.array.array_filter_gender_options));
+        sortSpinner.setAdapter(createSpinnerAdapter(R.array.array_sort_options));
+
+        // The first gender option is "any", followed by the genders in the order of their values
+        genderSpinner.setSelection(
+                mFilter.getGender() == PetFilter.ANY ? 0 : mFilter.getGender() + 1);
+        if (mFilter.getMinWeight() != PetFilter.ANY) {
+            minWeightEditText.setText(String.valueOf(mFilter.getMinWeight()));
+        }
+        if (mFilter.getMaxWeight() != PetFilter.ANY) {
+            maxWeightEditText.setText(String.valueOf(mFilter.getMaxWeight()));
+        }
+        breedEditText.setText(mFilter.getBreed());
+        sortSpinner.setSelection(PetEntry.SORT_WEIGHT.equals(mFilter.getSort()) ? 1 : 0);
+        descendingCheckBox.setChecked(mFilter.isDescending());
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_filter)
+                .setView(dialogView)
+                .setPositiveButton(R.string.filter_apply, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        int genderPosition = genderSpinner.getSelectedItemPosition();
+                        setFilter(new PetFilter(
+                                genderPosition == 0 ? PetFilter.ANY : genderPosition - 1,
+                                parseWeight(minWeightEditText),
+                                parseWeight(maxWeightEditText),
+                                breedEditText.getText().toString().trim(),
+                                sortSpinner.getSelectedItemPosition() == 1
+                                        ? PetEntry.SORT_WEIGHT
+                                        : PetEntry.SORT_NAME,
+                                descendingCheckBox.isChecked()));
+                    }
+                })
+                .setNeutralButton(R.string.filter_clear, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        setFilter(PetFilter.ALL);
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private ArrayAdapter<CharSequence> createSpinnerAdapter(int optionsArray) {
+        ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(this, optionsArray,
+                android.R.layout.simple_spinner_item);
+        adapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        return adapter;
+    }
+
+    /**
+     * Returns the weight typed in the given field, or {@link PetFilter#ANY} if there is none.
+     */
+    private static int parseWeight(EditText weightEditText) {
+        String weight = weightEditText.getText().toString().trim();
+        try {
+            return weight.isEmpty() ? PetFilter.ANY : Integer.parseInt(weight);
+        } catch (NumberFormatException e) {
+            return PetFilter.ANY;
+        }
+    }
+
+    private void setFilter(PetFilter filter) {
+        mFilter = filter;
+        mPetPager.setFilter(filter);
+    }
+
+    /**
+     * Tell the user all pets were deleted, with an action to bring them back.
+     */
+    private void showUndoDelete() {
+        final Context appContext = getApplicationContext();
+        Snackbar.make(findViewById(R.id.pet_list), R.string._delete_all_pets_successful,
+                Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        PetWriter.getInstance(appContext).undoDelete(new PetWriter.WriteCallback() {
+                            @Override
+                            public void onWritten(int rowsRestored) {
+                                if (rowsRestored == 0) {
+                                    Toast.makeText(appContext, R.string.undo_delete_failed,
+                                            Toast.LENGTH_SHORT).show();
+                                }
+                            }
+                        });
+                    }
+                })
+                .show();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -114,19 +325,40 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_insert_dummy_data:
                 insertPet();
                 return true;
+            // Respond to a click on the "Filter and sort" menu option
+            case R.id.action_filter:
+                showFilterDialog();
+                return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import_pets:
+                Intent pickRosterIntent = new Intent(Intent.ACTION_GET_CONTENT);
+                pickRosterIntent.setType("*/*");
+                pickRosterIntent.putExtra(Intent.EXTRA_MIME_TYPES,
+                        new String[]{"text/*", "application/json"});
+                pickRosterIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(pickRosterIntent, REQUEST_PICK_ROSTER);
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
 
-                // Delete all pets in database
-                int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-
-                //If no pets have been deleted, show an error message
-                if (rowsDeleted == 0) {
-                    Toast.makeText(this, getString(R.string.delete_all_pets_failed), Toast.LENGTH_SHORT).show();
-                } else {
-                    // else show a message saying deleting all pets has been successful
-                    Toast.makeText(this, getString(R.string._delete_all_pets_successful), Toast.LENGTH_SHORT).show();
-                }
+                // Delete all pets in database, in the background
+                final Context appContext = getApplicationContext();
+                PetWriter.getInstance(this).delete(PetEntry.CONTENT_URI, null, null,
+                        new PetWriter.WriteCallback() {
+                            @Override
+                            public void onWritten(int rowsDeleted) {
+                                //If no pets have been deleted, show an error message
+                                if (rowsDeleted == 0) {
+                                    Toast.makeText(appContext, appContext.getString(R.string.delete_all_pets_failed), Toast.LENGTH_SHORT).show();
+                                } else if (isFinishing()) {
+                                    // else show a message saying deleting all pets has been successful
+                                    Toast.makeText(appContext, appContext.getString(R.string._delete_all_pets_successful), Toast.LENGTH_SHORT).show();
+                                } else {
+                                    // The pets are only marked as deleted, so they can be brought back
+                                    showUndoDelete();
+                                }
+                            }
+                        });
 
                 return true;
         }
@@ -134,6 +366,19 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_PICK_ROSTER) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                // The import outlives the activity, and the list reloads as chunks are committed
+                new ImportTask(getApplicationContext()).executeOnExecutor(
+                        AsyncTask.THREAD_POOL_EXECUTOR, data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
     private void insertPet() {
 
         // Create Content values for a new row in database
@@ -145,41 +390,65 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
         values.put(PetEntry.COLUMN_PET_WEIGHT, 7);
 
-        // Insert new "dummy" placeholder pet into the database
-        // By calling ContentResolver Insert method, which will then call Pet Providers insertPet method
-        // Receive the new content URI that will allow us to access Toto's data in the future.
-        Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
+        // Insert new "dummy" placeholder pet into the database, in the background
+        // The provider's insertPet method runs on the writer's thread
+        PetWriter.getInstance(this).insert(PetEntry.CONTENT_URI, values, null);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-
-        // Projection string array for reading from database only from colums we care about
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED
-        };
-
-
-        return new CursorLoader(
-                this,
-                PetEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
-                null);
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(petAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-
-        petAdapter.swapCursor(data);
+    public void onPetsLoaded(PetPager.Rows pets) {
+        // The adapter releases the rows it replaces once the new ones are shown
+        petAdapter.swapRows(pets);
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Reset loader by setting Pet Adaptor's cursor to null
-        petAdapter.swapCursor(null);
+    /**
+     * Imports a roster in the background and shows the outcome in a toast. A roster that was
+     * only partly imported before is carried on with.
+     */
+    private static class ImportTask extends AsyncTask<Uri, Void, String> {
+        private final Context mContext;
+
+        ImportTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected String doInBackground(Uri... sources) {
+            Uri source = sources[0];
+            String type = mContext.getContentResolver().getType(source);
+            String format = type != null && type.endsWith("json")
+                    || source.getPath() != null && source.getPath().endsWith(".json")
+                    ? PetEntry.EXPORT_FORMAT_JSON
+                    : PetEntry.EXPORT_FORMAT_CSV;
+
+            final long[] badRows = new long[1];
+            try {
+                long imported = new PetImporter(mContext.getContentResolver()).importPets(
+                        source, format, new PetImporter.Listener() {
+                            @Override
+                            public void onBadRow(long row, String reason) {
+                                Log.w(LOG_TAG, "Skipped row " + row + ": " + reason);
+                                badRows[0]++;
+                            }
+
+                            @Override
+                            public void onProgress(long rowsRead, long petsImported) {
+                            }
+                        });
+                return mContext.getString(R.string.import_pets_successful, imported, badRows[0]);
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to import " + source, e);
+                return mContext.getString(R.string.import_pets_failed);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String message) {
+            Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
+        }
     }
-}
\ No newline at end of file
+}
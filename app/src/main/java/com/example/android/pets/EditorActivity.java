@@ -17,30 +17,49 @@ package com.example.android.pets;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.provider.UserDictionary;
+import android.os.Handler;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.view.MotionEvent;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
+import android.widget.FilterQueryProvider;
+import android.widget.ImageView;
+import android.widget.SimpleCursorAdapter;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.PetContract.BreedEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetThumbnailLoader;
+import com.example.android.pets.data.PetWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
 
 /**
  * Allows user to create a new pet or edit an existing one.
@@ -57,11 +76,30 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private static final int EXISTING_PET_LOADER = 0;
 
+    /**
+     * Request code for picking a photo
+     */
+    private static final int REQUEST_PICK_PHOTO = 1;
+
+    /**
+     * How long the fields of an existing pet have to stay unchanged before they are saved
+     */
+    private static final long AUTOSAVE_DELAY_MILLIS = 1000;
+
+    /**
+     * Keys of the instance state
+     */
+    private static final String STATE_SAVED_VALUES = "saved_values";
+    private static final String STATE_PICKED_PHOTO_URI = "picked_photo_uri";
+
+    /** Number of known breeds suggested for what the user has typed */
+    private static final int BREED_SUGGESTIONS = 10;
+
     /** EditText field to enter the pet's name */
     private EditText mNameEditText;
 
-    /** EditText field to enter the pet's breed */
-    private EditText mBreedEditText;
+    /** EditText field to enter the pet's breed, suggesting the breeds already known */
+    private AutoCompleteTextView mBreedEditText;
 
     /** EditText field to enter the pet's weight */
     private EditText mWeightEditText;
@@ -69,6 +107,55 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** EditText field to enter the pet's gender */
     private Spinner mGenderSpinner;
 
+    /** Shows the pet's photo */
+    private ImageView mPhotoImageView;
+
+    /** Shows the thumbnail of the photo the pet already has */
+    private PetThumbnailLoader mThumbnailLoader;
+
+    /**
+     * Photo picked for the pet, written to the provider when the pet is saved. Null if the
+     * photo hasn't been changed.
+     */
+    private Uri mPickedPhotoUri;
+
+    /**
+     * The values of the pet being edited as they are in the database, or about to be once the
+     * writes on their way are done. Null until the pet has been loaded, and for new pets.
+     * Autosave only writes the fields that differ from these.
+     */
+    private ContentValues mSavedValues;
+
+    /**
+     * True once the pet has been deleted, so nothing is saved to it any more
+     */
+    private boolean mPetDeleted;
+
+    private final Handler mHandler = new Handler();
+
+    private final Runnable mAutosaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            autosave();
+        }
+    };
+
+    // Autosaves an existing pet once the user stops typing
+    private final TextWatcher mTextWatcher = new TextWatcher() {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            scheduleAutosave();
+        }
+    };
+
     /**
      * Gender of the pet. The possible values are:
      * 0 for unknown gender, 1 for male, 2 for female.
@@ -80,18 +167,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private Uri mCurrentPetUri;
 
-    private boolean mPetHasChanged = false;
-    // Listens for when a user presses something on the view,
-    // which would mean some input has been changed, so then set mPetHasChanged from false to true
-    private View.OnTouchListener mTouchListener = new View.OnTouchListener() {
-        @Override
-        public boolean onTouch(View v, MotionEvent event) {
-            mPetHasChanged = true;
-            Log.v(LOG_TAG, "its going down");
-            return false;
-        }
-    };
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -124,18 +199,262 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         // Find all relevant views that we will need to read user input from
         mNameEditText = (EditText) findViewById(R.id.edit_pet_name);
-        mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
+        mBreedEditText = (AutoCompleteTextView) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoImageView = (ImageView) findViewById(R.id.edit_pet_photo);
+
+        mThumbnailLoader = new PetThumbnailLoader(getContentResolver(),
+                R.drawable.pet_photo_placeholder);
 
-        // Set on touch listeners on each field
-        mNameEditText.setOnTouchListener(mTouchListener);
-        mBreedEditText.setOnTouchListener(mTouchListener);
-        mWeightEditText.setOnTouchListener(mTouchListener);
-        mGenderSpinner.setOnTouchListener(mTouchListener);
+        // Let the user pick a photo from any app that offers images
+        findViewById(R.id.button_choose_photo).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("image/*");
+                if (intent.resolveActivity(getPackageManager()) != null) {
+                    startActivityForResult(intent, REQUEST_PICK_PHOTO);
+                }
+            }
+        });
+
+        // Watch the fields for changes to autosave
+        mNameEditText.addTextChangedListener(mTextWatcher);
+        mBreedEditText.addTextChangedListener(mTextWatcher);
+        mWeightEditText.addTextChangedListener(mTextWatcher);
 
         setupSpinner();
+        setupBreedSuggestions();
+
+        // The fields restore their own text; the values they are compared with are restored here
+        if (savedInstanceState != null) {
+            mSavedValues = savedInstanceState.getParcelable(STATE_SAVED_VALUES);
+            mPickedPhotoUri = savedInstanceState.getParcelable(STATE_PICKED_PHOTO_URI);
+            if (mPickedPhotoUri != null) {
+                showPhotoPreview();
+            }
+        }
+
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_SAVED_VALUES, mSavedValues);
+        outState.putParcelable(STATE_PICKED_PHOTO_URI, mPickedPhotoUri);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't wait for the quiet period: the process may not survive being in the background
+        autosave();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != REQUEST_PICK_PHOTO) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+
+        mPickedPhotoUri = data.getData();
+        showPhotoPreview();
+
+        // An existing pet gets its new photo straight away, like its other fields
+        if (mCurrentPetUri != null) {
+            savePhoto(getApplicationContext(), mPickedPhotoUri, mCurrentPetUri);
+        }
+    }
+
+    /**
+     * Stop showing the old photo, and decode a preview of the picked one in the background.
+     */
+    private void showPhotoPreview() {
+        mThumbnailLoader.clear(mPhotoImageView);
+        new PhotoPreviewTask(mPhotoImageView, getContentResolver(),
+                getResources().getDimensionPixelSize(R.dimen.editor_photo_size))
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mPickedPhotoUri);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mAutosaveRunnable);
+        mThumbnailLoader.clear(mPhotoImageView);
+        // Close the cursor of the last breed suggestions
+        ((SimpleCursorAdapter) mBreedEditText.getAdapter()).changeCursor(null);
+        super.onDestroy();
+    }
+
+    /**
+     * Suggest the breeds of the breed dictionary that start with what has been typed into the
+     * breed field, so the same breed is spelled the same way every time.
+     */
+    private void setupBreedSuggestions() {
+        SimpleCursorAdapter adapter = new SimpleCursorAdapter(this,
+                android.R.layout.simple_dropdown_item_1line, null,
+                new String[]{BreedEntry.COLUMN_BREED_NAME}, new int[]{android.R.id.text1}, 0);
+
+        // Filtering runs in the background, so the dictionary is queried straight away
+        adapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                if (TextUtils.isEmpty(constraint)) {
+                    return null;
+                }
+                String[] projection = {BreedEntry._ID, BreedEntry.COLUMN_BREED_NAME};
+                return getContentResolver().query(
+                        BreedEntry.buildPrefixUri(constraint.toString(), BREED_SUGGESTIONS),
+                        projection, null, null, null);
+            }
+        });
 
+        // Picking a suggestion fills in its name
+        adapter.setCursorToStringConverter(new SimpleCursorAdapter.CursorToStringConverter() {
+            @Override
+            public CharSequence convertToString(Cursor cursor) {
+                return cursor.getString(cursor.getColumnIndexOrThrow(
+                        BreedEntry.COLUMN_BREED_NAME));
+            }
+        });
+
+        mBreedEditText.setAdapter(adapter);
+    }
+
+    /**
+     * Save the changed fields of an existing pet once they have stayed unchanged for
+     * {@link #AUTOSAVE_DELAY_MILLIS}. Every change restarts the wait.
+     */
+    private void scheduleAutosave() {
+        if (mCurrentPetUri == null || mSavedValues == null) {
+            return;
+        }
+        mHandler.removeCallbacks(mAutosaveRunnable);
+        mHandler.postDelayed(mAutosaveRunnable, AUTOSAVE_DELAY_MILLIS);
+    }
+
+    /**
+     * Write the fields of an existing pet that differ from what it has in the database, if they
+     * make a valid pet. Drafts that don't, such as one without a name, wait for more changes.
+     */
+    private void autosave() {
+        mHandler.removeCallbacks(mAutosaveRunnable);
+        if (mCurrentPetUri == null || mSavedValues == null || mPetDeleted) {
+            return;
+        }
+
+        ContentValues values = readFields();
+        if (!isValidDraft(values)) {
+            return;
+        }
+        writeChanges(values, null);
+    }
+
+    /**
+     * Write the given values of the current pet that differ from {@link #mSavedValues}, and
+     * remember them as saved. The callback, which may be null, gets the number of rows
+     * updated, or 1 if nothing had changed.
+     */
+    private void writeChanges(ContentValues values, final PetWriter.WriteCallback callback) {
+        final ContentValues changedValues = getChangedValues(values);
+        if (changedValues.size() == 0) {
+            if (callback != null) {
+                callback.onWritten(1);
+            }
+            return;
+        }
+
+        // Count the values as saved right away, so the next change doesn't write them again
+        if (mSavedValues == null) {
+            mSavedValues = new ContentValues();
+        }
+        final ContentValues savedValues = mSavedValues;
+        savedValues.putAll(changedValues);
+
+        PetWriter.getInstance(this).update(mCurrentPetUri, changedValues,
+                new PetWriter.WriteCallback() {
+                    @Override
+                    public void onWritten(int rowsUpdated) {
+                        if (rowsUpdated == 0) {
+                            // Not saved after all, so they differ from whatever is saved now
+                            for (String column : changedValues.keySet()) {
+                                savedValues.remove(column);
+                            }
+                        }
+                        if (callback != null) {
+                            callback.onWritten(rowsUpdated);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Returns the values that differ from {@link #mSavedValues}, all of them if the pet hasn't
+     * been loaded yet.
+     */
+    private ContentValues getChangedValues(ContentValues values) {
+        ContentValues changedValues = new ContentValues(values);
+        if (mSavedValues == null) {
+            return changedValues;
+        }
+        for (String column : values.keySet()) {
+            if (mSavedValues.containsKey(column) && TextUtils.equals(
+                    values.getAsString(column), mSavedValues.getAsString(column))) {
+                changedValues.remove(column);
+            }
+        }
+        return changedValues;
+    }
+
+    /**
+     * Returns the values of the fields, or null if the weight isn't a number.
+     */
+    private ContentValues readFields() {
+        String weightString = mWeightEditText.getText().toString().trim();
+        int weight = 0;
+        if (!TextUtils.isEmpty(weightString)) {
+            try {
+                weight = Integer.parseInt(weightString);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, mNameEditText.getText().toString().trim());
+        values.put(PetEntry.COLUMN_PET_BREED, mBreedEditText.getText().toString().trim());
+        values.put(PetEntry.COLUMN_PET_GENDER, mGender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+
+    private static boolean isValidDraft(ContentValues values) {
+        return values != null
+                && !TextUtils.isEmpty(values.getAsString(PetEntry.COLUMN_PET_NAME))
+                && values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT) >= 0;
+    }
+
+    /**
+     * Returns true if leaving now would lose changes. Existing pets are autosaved, so only
+     * drafts that can't be saved count; new pets count as soon as anything has been entered.
+     */
+    private boolean hasUnsavedChanges() {
+        if (mCurrentPetUri != null) {
+            ContentValues values = readFields();
+            return mSavedValues != null && !isValidDraft(values)
+                    && (values == null || getChangedValues(values).size() > 0);
+        }
+
+        return !TextUtils.isEmpty(mNameEditText.getText())
+                || !TextUtils.isEmpty(mBreedEditText.getText())
+                || !TextUtils.isEmpty(mWeightEditText.getText())
+                || mGender != PetEntry.GENDER_UNKNOWN
+                || mPickedPhotoUri != null;
     }
 
     private void showUnsavedChangesDialog(DialogInterface.OnClickListener discardButtonClickListener) {
@@ -157,7 +476,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     public void onBackPressed() {
-        if (!mPetHasChanged) {
+        if (!hasUnsavedChanges()) {
             super.onBackPressed();
             return;
         }
@@ -200,6 +519,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                         mGender = PetEntry.GENDER_UNKNOWN;
                     }
                 }
+                scheduleAutosave();
             }
 
             // Because AdapterView is an abstract class, onNothingSelected must be defined
@@ -241,48 +561,97 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         values.put(PetEntry.COLUMN_PET_GENDER, mGender);
         values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
 
+        // The write happens in the background, after this activity may have finished, so the
+        // results are shown with the application context
+        final Context appContext = getApplicationContext();
+
         //Create a brand new pet if the current pet uri is null
         if (mCurrentPetUri == null) {
 
             Log.i(LOG_TAG, "Creating new pet");
+            final Uri pickedPhotoUri = mPickedPhotoUri;
 
             // Insert new pet into the database
             // By calling ContentResolver Insert method, which will then call PetProvider's insertPet method
-            Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-
-            // If there was an error saving new row, display an error toast message
-            if (newUri == null) {
-                // Toast message as an error message
-                Toast.makeText(this, R.string.editor_insert_pet_unsuccessful, Toast.LENGTH_SHORT).show();
-
-            } else {
-                // Else if new pet was added succesfully, display a success toast message
-                Toast.makeText(this, R.string.editor_insert_pet_successful, Toast.LENGTH_SHORT).show();
-            }
+            PetWriter.getInstance(this).insert(PetEntry.CONTENT_URI, values,
+                    new PetWriter.InsertCallback() {
+                        @Override
+                        public void onInserted(Uri newUri) {
+                            // If there was an error saving new row, display an error toast message
+                            if (newUri == null) {
+                                // Toast message as an error message
+                                Toast.makeText(appContext, R.string.editor_insert_pet_unsuccessful, Toast.LENGTH_SHORT).show();
+
+                            } else {
+                                // Else if new pet was added succesfully, display a success toast message
+                                Toast.makeText(appContext, R.string.editor_insert_pet_successful, Toast.LENGTH_SHORT).show();
+                                savePhoto(appContext, pickedPhotoUri, newUri);
+                            }
+                        }
+                    });
 
         } else {
-            // update current pet
+            // update current pet, writing only the fields that haven't been saved yet. The
+            // photo was saved when it was picked.
             Log.v(LOG_TAG, "Updating a pet");
 
-            int rowsUpdated = getContentResolver().update(mCurrentPetUri, values, null, null);
+            writeChanges(values, new PetWriter.WriteCallback() {
+                @Override
+                public void onWritten(int rowsUpdated) {
+                    Log.v(LOG_TAG, "Updated rows: " + String.valueOf(rowsUpdated));
 
-            Log.v(LOG_TAG, "Updated rows: " + String.valueOf(rowsUpdated));
+                    // If there was an error saving new row, display an error toast message
+                    if (rowsUpdated == 0) {
+                        // Toast message as an error message
+                        Toast.makeText(appContext, R.string.editor_insert_pet_unsuccessful, Toast.LENGTH_SHORT).show();
 
-            Log.v(LOG_TAG, "mGender is: " + String.valueOf(mGender));
+                    } else {
+                        // Else if new pet was added succesfully, display a success toast message
+                        Toast.makeText(appContext, R.string.editor_insert_pet_successful, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
 
-            // If there was an error saving new row, display an error toast message
-            if (rowsUpdated == 0) {
-                // Toast message as an error message
-                Toast.makeText(this, R.string.editor_insert_pet_unsuccessful, Toast.LENGTH_SHORT).show();
+        }
 
-            } else {
-                // Else if new pet was added succesfully, display a success toast message
-                Toast.makeText(this, R.string.editor_insert_pet_successful, Toast.LENGTH_SHORT).show();
-            }
 
-        }
+    }
 
+    /**
+     * Write the picked photo, if there is one, to the given pet's photo URI. The copy runs in the
+     * background and outlives the activity; the provider makes the thumbnail once it's done.
+     */
+    private static void savePhoto(Context appContext, final Uri source, Uri petUri) {
+        if (source == null) {
+            return;
+        }
 
+        final ContentResolver contentResolver = appContext.getContentResolver();
+        final Uri target = PetEntry.buildPhotoUri(ContentUris.parseId(petUri));
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InputStream in = contentResolver.openInputStream(source);
+                    try {
+                        OutputStream out = contentResolver.openOutputStream(target, "w");
+                        try {
+                            byte[] buffer = new byte[8192];
+                            int count;
+                            while ((count = in.read(buffer)) != -1) {
+                                out.write(buffer, 0, count);
+                            }
+                        } finally {
+                            out.close();
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to save the photo " + source, e);
+                }
+            }
+        });
     }
 
 
@@ -330,7 +699,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
             // Respond to a click on the "Up" arrow button in the app bar
             case android.R.id.home:
-                if (!mPetHasChanged) {
+                if (!hasUnsavedChanges()) {
                     // Navigate back to parent activity (CatalogActivity)
                     NavUtils.navigateUpFromSameTask(this);
                     return true;
@@ -385,20 +754,29 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         //Delete the pet in the editor activity
         if (mCurrentPetUri != null) {
 
-            // Call the ContentResolver to delete the pet at the given content URI.
+            // Nothing is autosaved to a deleted pet
+            mPetDeleted = true;
+            mHandler.removeCallbacks(mAutosaveRunnable);
+
+            // Delete the pet at the given content URI in the background.
             // Pass in null for the selection and selection args because the mCurrentPetUri
             // content URI already identifies the pet that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentPetUri, null, null);
-
-            // If no rows have been deleted then display failed toast message
-            if (rowsDeleted == 0) {
-
-                Toast.makeText(this, getString(R.string.editor_delete_pet_failed), Toast.LENGTH_SHORT).show();
-            } else {
-
-                //If the pet was deleted, show a delete successful message
-                Toast.makeText(this, getString(R.string.editor_delete_pet_successful), Toast.LENGTH_SHORT).show();
-            }
+            final Context appContext = getApplicationContext();
+            PetWriter.getInstance(this).delete(mCurrentPetUri, null, null,
+                    new PetWriter.WriteCallback() {
+                        @Override
+                        public void onWritten(int rowsDeleted) {
+                            // If no rows have been deleted then display failed toast message
+                            if (rowsDeleted == 0) {
+
+                                Toast.makeText(appContext, appContext.getString(R.string.editor_delete_pet_failed), Toast.LENGTH_SHORT).show();
+                            } else {
+
+                                //If the pet was deleted, show a delete successful message
+                                Toast.makeText(appContext, appContext.getString(R.string.editor_delete_pet_successful), Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
 
         }
 
@@ -416,7 +794,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 PetEntry.COLUMN_PET_NAME,
                 PetEntry.COLUMN_PET_BREED,
                 PetEntry.COLUMN_PET_GENDER,
-                PetEntry.COLUMN_PET_WEIGHT
+                PetEntry.COLUMN_PET_WEIGHT,
+                PetEntry.COLUMN_PET_PHOTO
         };
 
 
@@ -447,6 +826,20 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             int breedColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
             int genderColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER);
             int weightColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
+            int photoColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO);
+
+            // Show the current photo, unless the user has picked a new one
+            if (mPickedPhotoUri == null) {
+                mThumbnailLoader.load(mPhotoImageView, ContentUris.parseId(mCurrentPetUri),
+                        cursor.getString(photoColumnIndex));
+            }
+
+            // The pet is reloaded after every autosave; only fill the fields in the first time,
+            // or the text would be replaced while the user is typing. After a restart the
+            // fields have restored their own text.
+            if (mSavedValues != null) {
+                return;
+            }
 
             // Get the values for the current pet from the database columns
             String currentPetName = cursor.getString(nameColumnIndex);
@@ -482,6 +875,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             // set global Gender variable to pet gender so the current pet's gender will be saved
             mGender = currentPetGender;
 
+            // What the fields are compared with to find the changes to autosave, read the same
+            // way as the fields are
+            mSavedValues = readFields();
+
         }
 
     }
@@ -494,5 +891,58 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText.setText("");
         mWeightEditText.setText("");
         mGenderSpinner.setSelection(0); // Set gender to Unknown
+        mThumbnailLoader.clear(mPhotoImageView);
+    }
+
+    /**
+     * Decodes a picked photo in the background, scaled down to about the size it is shown at.
+     */
+    private static class PhotoPreviewTask extends AsyncTask<Uri, Void, Bitmap> {
+        private final WeakReference<ImageView> mImageView;
+        private final ContentResolver mContentResolver;
+        private final int mSizePx;
+
+        PhotoPreviewTask(ImageView imageView, ContentResolver contentResolver, int sizePx) {
+            mImageView = new WeakReference<>(imageView);
+            mContentResolver = contentResolver;
+            mSizePx = sizePx;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Uri... uris) {
+            try {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                decode(uris[0], options);
+
+                options.inSampleSize = 1;
+                while (Math.min(options.outWidth, options.outHeight)
+                        / (options.inSampleSize * 2) >= mSizePx) {
+                    options.inSampleSize *= 2;
+                }
+                options.inJustDecodeBounds = false;
+                return decode(uris[0], options);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to preview the photo " + uris[0], e);
+                return null;
+            }
+        }
+
+        private Bitmap decode(Uri uri, BitmapFactory.Options options) throws IOException {
+            InputStream in = mContentResolver.openInputStream(uri);
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            ImageView imageView = mImageView.get();
+            if (imageView != null && bitmap != null) {
+                imageView.setImageBitmap(bitmap);
+            }
+        }
     }
 }
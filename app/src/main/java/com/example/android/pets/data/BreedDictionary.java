@@ -0,0 +1,124 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link BreedDictionary} keeps the breeds of one shelter database in memory, as used by
+ * {@link PetProvider}: writes turn breed names into ids with it, adding new breeds to the
+ * {@link BreedEntry} table, and cached pets get their breed name from it, so every pet of a
+ * breed shares one String.
+ * <p>
+ * Breeds are never removed from the table, so entries only go stale if the transaction that
+ * added a breed is rolled back. The provider {@link #clear}s the dictionary when that happens.
+ */
+final class BreedDictionary {
+
+    private static final String SELECTION_BY_NAME = BreedEntry.COLUMN_BREED_NAME + " = ?";
+    private static final String SELECTION_BY_ID = BreedEntry._ID + " = ?";
+    private static final String[] COLUMNS = {BreedEntry._ID, BreedEntry.COLUMN_BREED_NAME};
+
+    /**
+     * Breed ids by name folded to lower case, the way the NOCASE collation of the table folds
+     * them. Guarded by this dictionary.
+     */
+    private final Map<String, Long> mIds = new HashMap<>();
+
+    /**
+     * Breed names, as spelled in the table, by id. Guarded by this dictionary.
+     */
+    private final Map<Long, String> mNames = new HashMap<>();
+
+    /**
+     * Returns the id of the breed with the given name, adding it to the table if it's new, or
+     * null if the name is null or empty, which means no breed. Call it in the transaction that
+     * writes the pet.
+     */
+    synchronized Long getId(SQLiteDatabase db, String name) {
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+
+        String key = foldCase(name);
+        Long id = mIds.get(key);
+        if (id != null) {
+            return id;
+        }
+
+        Cursor cursor = db.query(BreedEntry.TABLE_NAME, COLUMNS, SELECTION_BY_NAME,
+                new String[]{name}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                id = cursor.getLong(0);
+                name = cursor.getString(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (id == null) {
+            ContentValues values = new ContentValues(1);
+            values.put(BreedEntry.COLUMN_BREED_NAME, name);
+            id = db.insertOrThrow(BreedEntry.TABLE_NAME, null, values);
+        }
+
+        mIds.put(key, id);
+        mNames.put(id, name);
+        return id;
+    }
+
+    /**
+     * Returns the name of the breed with the given id, or null if there is no such breed.
+     */
+    synchronized String getName(SQLiteDatabase db, long id) {
+        String name = mNames.get(id);
+        if (name != null) {
+            return name;
+        }
+
+        Cursor cursor = db.query(BreedEntry.TABLE_NAME, COLUMNS, SELECTION_BY_ID,
+                new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            name = cursor.getString(1);
+        } finally {
+            cursor.close();
+        }
+
+        mIds.put(foldCase(name), id);
+        mNames.put(id, name);
+        return name;
+    }
+
+    /**
+     * Forget every breed, after a transaction that may have added some was rolled back.
+     */
+    synchronized void clear() {
+        mIds.clear();
+        mNames.clear();
+    }
+
+    /**
+     * Fold the ASCII letters of the name to lower case, and nothing else, like NOCASE does.
+     */
+    private static String foldCase(String name) {
+        char[] chars = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (chars == null) {
+                    chars = name.toCharArray();
+                }
+                chars[i] = (char) (c + 'a' - 'A');
+            }
+        }
+        return chars == null ? name : new String(chars);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link InMemoryPetSyncServer} is a {@link PetSyncServer} that keeps the roster in memory, in
+ * the same process. It stands in for the real server when trying out or checking
+ * {@link PetSyncEngine}, and several devices can share one instance.
+ */
+public class InMemoryPetSyncServer implements PetSyncServer {
+
+    private static final Comparator<PetChange> VERSION_ORDER = new Comparator<PetChange>() {
+        @Override
+        public int compare(PetChange a, PetChange b) {
+            return a.getVersion() < b.getVersion() ? -1 : (a.getVersion() == b.getVersion()
+                    ? 0 : 1);
+        }
+    };
+
+    /**
+     * The latest record of every pet, deleted ones included, by sync id. Guarded by this server.
+     */
+    private final Map<String, PetChange> mRecords = new HashMap<>();
+
+    /**
+     * Version of the last record stored. Guarded by this server.
+     */
+    private long mLastVersion;
+
+    @Override
+    public synchronized List<PushResult> push(List<PetChange> changes) {
+        List<PushResult> results = new ArrayList<>(changes.size());
+        for (PetChange change : changes) {
+            PetChange record = mRecords.get(change.getSyncId());
+            if (record != null && record.getVersion() != change.getVersion()) {
+                // Someone else changed the pet since the change was made
+                results.add(new PushResult(false, record));
+                continue;
+            }
+
+            record = change.withVersion(++mLastVersion);
+            mRecords.put(record.getSyncId(), record);
+            results.add(new PushResult(true, record));
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized List<PetChange> pull(long afterVersion, int limit) {
+        List<PetChange> records = new ArrayList<>();
+        for (PetChange record : mRecords.values()) {
+            if (record.getVersion() > afterVersion) {
+                records.add(record);
+            }
+        }
+        Collections.sort(records, VERSION_ORDER);
+        if (records.size() > limit) {
+            return new ArrayList<>(records.subList(0, limit));
+        }
+        return records;
+    }
+
+    /**
+     * Returns the number of pets on the server, deleted ones included.
+     */
+    public synchronized int size() {
+        return mRecords.size();
+    }
+}
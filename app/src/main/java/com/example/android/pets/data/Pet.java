@@ -0,0 +1,125 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * {@link Pet} is an immutable copy of one row of the pets table.
+ */
+public final class Pet {
+
+    /**
+     * Every column of the pets table, in the order {@link #fromCursor} expects them
+     */
+    public static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO
+    };
+
+    /**
+     * Rough size of a pet in memory without its strings: the object header, the fields and the
+     * three String objects with their character arrays
+     */
+    private static final int BASE_SIZE_BYTES = 120;
+
+    private final long mId;
+    private final String mName;
+    private final String mBreed;
+    private final int mGender;
+    private final int mWeight;
+    private final String mPhoto;
+
+    public Pet(long id, String name, String breed, int gender, int weight, String photo) {
+        mId = id;
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+        mPhoto = photo;
+    }
+
+    /**
+     * Read a pet from the current row of a cursor whose columns are {@link #COLUMNS}.
+     */
+    public static Pet fromCursor(Cursor cursor) {
+        return new Pet(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.getInt(3), cursor.getInt(4), cursor.getString(5));
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public int getGender() {
+        return mGender;
+    }
+
+    public int getWeight() {
+        return mWeight;
+    }
+
+    public String getPhoto() {
+        return mPhoto;
+    }
+
+    /**
+     * Approximate number of bytes this pet takes up in memory.
+     */
+    public int getSizeInBytes() {
+        int chars = (mName == null ? 0 : mName.length()) + (mBreed == null ? 0 : mBreed.length())
+                + (mPhoto == null ? 0 : mPhoto.length());
+        return BASE_SIZE_BYTES + 2 * chars;
+    }
+
+    /**
+     * Returns a single row cursor holding the given columns of this pet, or all of them if the
+     * projection is null.
+     */
+    public Cursor toCursor(String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            row[i] = getValue(projection[i]);
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    private Object getValue(String column) {
+        switch (column) {
+            case PetEntry._ID:
+                return mId;
+            case PetEntry.COLUMN_PET_NAME:
+                return mName;
+            case PetEntry.COLUMN_PET_BREED:
+                return mBreed;
+            case PetEntry.COLUMN_PET_GENDER:
+                return mGender;
+            case PetEntry.COLUMN_PET_WEIGHT:
+                return mWeight;
+            case PetEntry.COLUMN_PET_PHOTO:
+                return mPhoto;
+            default:
+                throw new IllegalArgumentException("Unknown pet column " + column);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+import android.util.LruCache;
+
+/**
+ * {@link PetCache} is a bounded, in-memory LRU cache of {@link Pet}s keyed by _id, which
+ * {@link PetProvider} checks before reading a single pet from the database.
+ * <p>
+ * Writers invalidate entries after they have written. Readers take a generation number before
+ * reading from the database and only store what they read if no invalidation happened in the
+ * meantime, so a read racing with a write can't put a stale pet back in the cache.
+ */
+class PetCache {
+
+    /**
+     * Default memory budget of the cache, in bytes
+     */
+    static final int DEFAULT_MAX_SIZE_BYTES = 1024 * 1024;
+
+    private final LruCache<Long, Pet> mPets;
+
+    /**
+     * When false, the cache is bypassed, so its effect can be measured
+     */
+    private volatile boolean mEnabled = true;
+
+    /**
+     * Incremented by every invalidation. Guarded by this.
+     */
+    private long mGeneration;
+
+    PetCache(int maxSizeBytes) {
+        mPets = new LruCache<Long, Pet>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(Long id, Pet pet) {
+                return pet.getSizeInBytes();
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Turn the cache on or off. Turning it off empties it.
+     */
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the cached pet with the given id, or null if it isn't cached.
+     */
+    Pet get(long id) {
+        if (!mEnabled) {
+            return null;
+        }
+        return mPets.get(id);
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put} for a pet that is about to be read.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache a pet read from the database, unless the cache has been invalidated since the
+     * given generation was taken.
+     */
+    synchronized void put(Pet pet, long generation) {
+        if (mEnabled && generation == mGeneration) {
+            mPets.put(pet.getId(), pet);
+        }
+    }
+
+    /**
+     * Forget the pet with the given id. Call this after the pet has been changed or deleted.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mPets.remove(id);
+    }
+
+    /**
+     * Forget every pet. Call this after a write that could have changed any number of pets.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mPets.evictAll();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts, the current size and whether the cache is on.
+     */
+    Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putBoolean(PetContract.KEY_CACHE_ENABLED, mEnabled);
+        stats.putLong(PetContract.KEY_CACHE_HIT_COUNT, mPets.hitCount());
+        stats.putLong(PetContract.KEY_CACHE_MISS_COUNT, mPets.missCount());
+        stats.putLong(PetContract.KEY_CACHE_EVICTION_COUNT, mPets.evictionCount());
+        stats.putInt(PetContract.KEY_CACHE_SIZE_BYTES, mPets.size());
+        return stats;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.android.pets.data;
+
+/**
+ * {@link PetChange} is an immutable copy of a pet as it is sent to or received from a
+ * {@link PetSyncServer}: its sync id, a version, whether it has been deleted, and its data.
+ * <p>
+ * For a change pushed to the server the version is the server version the change was based
+ * on, or 0 for a pet the server has never seen; for a record from the server it is the
+ * version of the record itself.
+ */
+public final class PetChange {
+
+    private final String mSyncId;
+    private final long mVersion;
+    private final boolean mDeleted;
+    private final String mName;
+    private final String mBreed;
+    private final int mGender;
+    private final int mWeight;
+
+    public PetChange(String syncId, long version, boolean deleted, String name, String breed,
+                     int gender, int weight) {
+        mSyncId = syncId;
+        mVersion = version;
+        mDeleted = deleted;
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+    }
+
+    /**
+     * Returns a copy of this change with the given version.
+     */
+    public PetChange withVersion(long version) {
+        return new PetChange(mSyncId, version, mDeleted, mName, mBreed, mGender, mWeight);
+    }
+
+    public String getSyncId() {
+        return mSyncId;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public boolean isDeleted() {
+        return mDeleted;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public int getGender() {
+        return mGender;
+    }
+
+    public int getWeight() {
+        return mWeight;
+    }
+}
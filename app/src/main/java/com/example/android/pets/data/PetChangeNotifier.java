@@ -0,0 +1,201 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link PetChangeNotifier} sends the change notifications for {@link PetProvider}.
+ * <p>
+ * Notifications are only sent for writes that have been committed: changes made inside a
+ * transaction are collected and either handed over when the transaction commits, or dropped
+ * when it rolls back. Notifications are then held for a short window, so a burst of writes to
+ * the same URI makes listeners such as a CursorLoader re-query once instead of once per write.
+ * <p>
+ * Writes to a single pet are notified on the row URI (pets/#). The {@link ContentResolver}
+ * delivers those to observers of the pets collection that watch descendants, which is how
+ * every {@link android.database.Cursor} registers, so list screens are refreshed as well.
+ * Writes to the whole collection are notified on the collection URI, which also reaches
+ * observers of the individual rows.
+ */
+class PetChangeNotifier {
+
+    /**
+     * How long, in milliseconds, notifications are held so repeated changes can be coalesced
+     */
+    private static final long COALESCE_WINDOW_MILLIS = 100;
+
+    private final ContentResolver mContentResolver;
+
+    private final PetProviderMetrics mMetrics;
+
+    /**
+     * Handler on a background thread that sends the notifications, so the binder calls to
+     * the system never run on the thread that did the write
+     */
+    private final Handler mHandler;
+
+    /**
+     * Uris waiting for the current coalescing window to end. Guarded by itself.
+     */
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+
+    /**
+     * The transaction the current thread is in, or null when it isn't in one
+     */
+    private final ThreadLocal<Transaction> mTransaction = new ThreadLocal<>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    PetChangeNotifier(ContentResolver contentResolver, PetProviderMetrics metrics) {
+        mContentResolver = contentResolver;
+        mMetrics = metrics;
+
+        HandlerThread thread = new HandlerThread(PetChangeNotifier.class.getSimpleName());
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Start collecting the changes made by the current thread instead of notifying them.
+     * Calls may be nested; only the outermost transaction decides what happens to the changes.
+     */
+    void beginTransaction() {
+        Transaction transaction = mTransaction.get();
+        if (transaction == null) {
+            transaction = new Transaction();
+            mTransaction.set(transaction);
+        }
+        transaction.depth++;
+    }
+
+    /**
+     * End a transaction started with {@link #beginTransaction()}. When the outermost
+     * transaction ends, the collected changes are notified if it was committed and
+     * discarded otherwise.
+     */
+    void endTransaction(boolean committed) {
+        Transaction transaction = mTransaction.get();
+        if (transaction == null) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+
+        if (!committed) {
+            transaction.rolledBack = true;
+        }
+
+        if (--transaction.depth > 0) {
+            return;
+        }
+
+        mTransaction.remove();
+        if (!transaction.rolledBack) {
+            schedule(transaction.changedUris);
+        }
+    }
+
+    /**
+     * Hand over the changes collected so far by the current thread's transaction, which has
+     * committed them at a yield point, so they are notified even if the rest of it rolls back.
+     */
+    void commitSoFar() {
+        Transaction transaction = mTransaction.get();
+        if (transaction == null) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        if (!transaction.rolledBack) {
+            schedule(transaction.changedUris);
+        }
+        transaction.changedUris.clear();
+    }
+
+    /**
+     * Notify listeners that the data at the given URI has changed. This must be called after
+     * the write has been done. Inside a transaction, the notification waits for the commit.
+     */
+    void notifyChange(Uri uri) {
+        mMetrics.onNotificationRequested();
+
+        Transaction transaction = mTransaction.get();
+        if (transaction != null) {
+            transaction.changedUris.add(uri);
+            return;
+        }
+
+        List<Uri> uris = new ArrayList<>(1);
+        uris.add(uri);
+        schedule(uris);
+    }
+
+    /**
+     * Add the URIs to the pending notifications and start a coalescing window if there isn't
+     * one running already.
+     */
+    private void schedule(Iterable<Uri> uris) {
+        synchronized (mPendingUris) {
+            boolean windowRunning = !mPendingUris.isEmpty();
+            for (Uri uri : uris) {
+                mPendingUris.add(uri);
+            }
+
+            if (!windowRunning && !mPendingUris.isEmpty()) {
+                mHandler.postDelayed(mFlushRunnable, COALESCE_WINDOW_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Send all pending notifications. A URI is skipped when one of its ancestors is also
+     * pending, because the ancestor's notification already reaches its observers.
+     */
+    private void flush() {
+        List<Uri> uris;
+        synchronized (mPendingUris) {
+            uris = new ArrayList<>(mPendingUris);
+            mPendingUris.clear();
+        }
+
+        for (Uri uri : uris) {
+            if (!hasPendingAncestor(uri, uris)) {
+                mContentResolver.notifyChange(uri, null);
+                mMetrics.onNotificationSent();
+            }
+        }
+    }
+
+    /**
+     * Returns true if any of the other URIs is an ancestor of the given URI.
+     */
+    private static boolean hasPendingAncestor(Uri uri, List<Uri> uris) {
+        List<String> segments = uri.getPathSegments();
+        for (Uri other : uris) {
+            List<String> otherSegments = other.getPathSegments();
+            if (otherSegments.size() < segments.size()
+                    && uri.getAuthority().equals(other.getAuthority())
+                    && segments.subList(0, otherSegments.size()).equals(otherSegments)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Changes collected for one thread's (possibly nested) transaction.
+     */
+    private static class Transaction {
+        final Set<Uri> changedUris = new LinkedHashSet<>();
+        int depth;
+        boolean rolledBack;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -35,6 +36,149 @@ public final class PetContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Path appended to the pets content URI, followed by the text to look for, to search pets
+     * by name and breed. For instance content://com.example.android.pets/pets/search/terr
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Paths appended to the URI of a single pet for its photo and the thumbnail of the photo.
+     * For instance content://com.example.android.pets/pets/3/photo
+     */
+    public static final String PATH_PHOTO = "photo";
+    public static final String PATH_THUMBNAIL = "thumbnail";
+
+    /**
+     * Path appended to the pets content URI to export every pet as a file, for instance
+     * content://com.example.android.pets/pets/export?format=csv&gzip=true
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path to the progress of roster imports, see {@link ImportEntry}
+     */
+    public static final String PATH_IMPORTS = "imports";
+
+    /**
+     * Paths appended to the pets content URI for the statistics of the pets, see
+     * {@link StatsEntry}. For instance content://com.example.android.pets/pets/stats/breeds.
+     * The breeds path on its own is the breed dictionary, see {@link BreedEntry}.
+     */
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_BREEDS = "breeds";
+
+    /**
+     * Path to the pets of a single shelter, or of every shelter, see {@link ShelterEntry}. For
+     * instance content://com.example.android.pets/shelters/3/pets or
+     * content://com.example.android.pets/shelters/all/pets
+     */
+    public static final String PATH_SHELTERS = "shelters";
+    public static final String PATH_ALL_SHELTERS = "all";
+
+    /**
+     * Paths to the pending local changes and the sync state, see {@link ChangeEntry} and
+     * {@link SyncStateEntry}
+     */
+    public static final String PATH_CHANGES = "changes";
+    public static final String PATH_SYNC_STATE = "sync_state";
+
+    /**
+     * Query parameter, set to true, that marks a write as coming from a sync adapter such as
+     * {@link PetSyncEngine}. Sync adapters write changes that are already on the server, so
+     * their writes don't go into the change log. They may also set the sync columns and
+     * {@link PetEntry#COLUMN_PET_DELETED_AT}, their updates reach deleted pets too, and an
+     * insert of a pet whose sync id is already known updates that pet instead. Only the
+     * default shelter is synced.
+     */
+    public static final String QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER = "caller_is_sync_adapter";
+
+    /**
+     * Returns the given URI with {@link #QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER} set.
+     */
+    public static Uri asSyncAdapter(Uri uri) {
+        return uri.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_CALLER_IS_SYNC_ADAPTER, "true")
+                .build();
+    }
+
+    /**
+     * Methods that can be passed to {@link ContentResolver#call} on {@link #BASE_CONTENT_URI}.
+     * <p>
+     * {@link #METHOD_GET_CACHE_STATS} returns the statistics of the provider's in-memory pet
+     * cache, under the KEY_CACHE_* keys. {@link #METHOD_SET_CACHE_ENABLED} turns the cache on or
+     * off, according to the boolean extra {@link #KEY_CACHE_ENABLED}, so its effect can be
+     * compared.
+     */
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+    public static final String METHOD_SET_CACHE_ENABLED = "set_cache_enabled";
+
+    /**
+     * Keys of the pet cache statistics and settings
+     */
+    public static final String KEY_CACHE_ENABLED = "cache_enabled";
+    public static final String KEY_CACHE_HIT_COUNT = "cache_hit_count";
+    public static final String KEY_CACHE_MISS_COUNT = "cache_miss_count";
+    public static final String KEY_CACHE_EVICTION_COUNT = "cache_eviction_count";
+    public static final String KEY_CACHE_SIZE_BYTES = "cache_size_bytes";
+
+    /**
+     * {@link #METHOD_GET_METRICS} returns a snapshot of the provider's operation metrics.
+     * {@link #METHOD_SET_METRICS_ENABLED} turns them on or off, according to the boolean extra
+     * {@link #KEY_METRICS_ENABLED}, and returns a snapshot too. They are off until turned on,
+     * and start again from zero each time they are.
+     * <p>
+     * A snapshot holds a Bundle for each of the operations named by
+     * {@link #KEY_METRICS_OPERATIONS}, under the operation's name, with the KEY_OPERATION_*
+     * keys. The latency histogram of an operation counts the operations whose latency was under
+     * each of the {@link #KEY_METRICS_BUCKET_LIMITS_MICROS}, and has one more bucket at the end
+     * for anything slower.
+     */
+    public static final String METHOD_GET_METRICS = "get_metrics";
+    public static final String METHOD_SET_METRICS_ENABLED = "set_metrics_enabled";
+
+    /**
+     * Keys of the metrics snapshot and settings
+     */
+    public static final String KEY_METRICS_ENABLED = "metrics_enabled";
+    public static final String KEY_METRICS_OPERATIONS = "metrics_operations";
+    public static final String KEY_METRICS_BUCKET_LIMITS_MICROS = "metrics_bucket_limits_micros";
+    public static final String KEY_METRICS_NOTIFICATIONS_REQUESTED =
+            "metrics_notifications_requested";
+    public static final String KEY_METRICS_NOTIFICATIONS_SENT = "metrics_notifications_sent";
+
+    /**
+     * Keys of the metrics of one operation. Rows are the rows written for writes, and the rows
+     * of the returned cursor for queries; failed operations count as errors instead.
+     */
+    public static final String KEY_OPERATION_COUNT = "count";
+    public static final String KEY_OPERATION_ERROR_COUNT = "error_count";
+    public static final String KEY_OPERATION_TOTAL_NANOS = "total_nanos";
+    public static final String KEY_OPERATION_MAX_NANOS = "max_nanos";
+    public static final String KEY_OPERATION_ROWS = "rows";
+    public static final String KEY_OPERATION_LATENCY_HISTOGRAM = "latency_histogram";
+
+    /**
+     * {@link #METHOD_UNDO_DELETE} brings back the pets removed by the most recent delete, and
+     * returns how many there were under {@link #KEY_ROWS_RESTORED}. Deletes written by sync
+     * adapters aren't undone, and each delete can be undone once, while the provider is
+     * running. Deleted pets can be brought back until they are purged,
+     * {@link PetEntry#TOMBSTONE_RETENTION_MILLIS} after their delete at the earliest. The argument is the id of the shelter whose delete to undo,
+     * or null for the default shelter.
+     */
+    public static final String METHOD_UNDO_DELETE = "undo_delete";
+    public static final String KEY_ROWS_RESTORED = "rows_restored";
+
+    /**
+     * {@link #METHOD_CHECK_STATS} recomputes the statistics of {@link StatsEntry} from every
+     * pet, compares them with the stored ones and returns the number of rows that differ under
+     * {@link #KEY_STATS_MISMATCHES}; 0 means they are right. {@link #METHOD_REBUILD_STATS}
+     * replaces the stored statistics with the recomputed ones. Both read every pet of the
+     * shelter whose id is the argument, or of the default shelter if it is null.
+     */
+    public static final String METHOD_CHECK_STATS = "check_stats";
+    public static final String METHOD_REBUILD_STATS = "rebuild_stats";
+    public static final String KEY_STATS_MISMATCHES = "stats_mismatches";
 
     /**
      * Inner class that defines constant values for the pets database table.
@@ -44,6 +188,12 @@ public final class PetContract {
 
         public static final String TABLE_NAME = "pets";
 
+        /**
+         * Full-text index over the name and breed of every pet, kept in sync with the pets table
+         * by triggers. Its docid is the _id of the pet.
+         */
+        public static final String FTS_TABLE_NAME = "pets_fts";
+
         // Constants for the database column headers
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_PET_NAME = "name";
@@ -51,14 +201,267 @@ public final class PetContract {
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
 
+        /**
+         * Id of the pet's breed in {@link BreedEntry}, or null if it has none. The breed is
+         * stored as this id; the provider sets it from {@link #COLUMN_PET_BREED}, which is read
+         * back from the breed dictionary, so callers only read it.
+         */
+        public static final String COLUMN_PET_BREED_ID = "breed_id";
+
+        /**
+         * Name of the file holding the pet's photo, or null if it has none. It is set by the
+         * provider when a photo is written to {@link #buildPhotoUri}, and changes every time the
+         * photo does, so it can be used as a cache key. Callers can't set it themselves.
+         */
+        public static final String COLUMN_PET_PHOTO = "photo";
+
+        /**
+         * When the pet was deleted, in milliseconds since the epoch, or null while it isn't.
+         * Deleting a pet only sets this column; the pet is hidden from every query from then on,
+         * and purged from the table in the background later. Internal to the provider, so it
+         * can't be queried, and only sync adapters can write it.
+         */
+        public static final String COLUMN_PET_DELETED_AT = "deleted_at";
+
+        /**
+         * Id of the pet shared by every device and the server: a time ordered UUID for pets
+         * created on this device, and the server's id for pets pulled from it. Set by the
+         * provider when the pet is inserted; only sync adapters can set it themselves.
+         */
+        public static final String COLUMN_PET_SYNC_ID = "sync_id";
+
+        /**
+         * The server's version of the pet that the local copy is based on, or 0 if the pet has
+         * never been synced. Only written by sync adapters.
+         */
+        public static final String COLUMN_PET_SYNC_VERSION = "sync_version";
+
+        /**
+         * How long deleted pets are kept, so their delete can be undone, before being purged
+         */
+        public static final long TOMBSTONE_RETENTION_MILLIS = 10 * 60 * 1000;
+
         // Gender value constants
         public static final int GENDER_UNKNOWN = 0;
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
 
+        /**
+         * The columns a list of pets needs: enough to show and open each pet.
+         */
+        public static final String[] PROJECTION_SUMMARY = {
+                _ID,
+                COLUMN_PET_NAME,
+                COLUMN_PET_BREED,
+                COLUMN_PET_PHOTO
+        };
+
+        /**
+         * The columns returned when a query passes a null projection. Columns that can hold large
+         * values are left out, so they are only read when a caller asks for them by name.
+         */
+        public static final String[] PROJECTION_DEFAULT = {
+                _ID,
+                COLUMN_PET_NAME,
+                COLUMN_PET_BREED,
+                COLUMN_PET_GENDER,
+                COLUMN_PET_WEIGHT,
+                COLUMN_PET_PHOTO
+        };
 
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /**
+         * Query parameter for {@link #CONTENT_URI} that asks for one page of pets, at most this
+         * many of them. Paged queries are sorted by their sort key (the name, ignoring case,
+         * unless {@link #QUERY_PARAMETER_SORT} says otherwise) and then by _id, so a page can
+         * carry on exactly where the previous one stopped.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameters for the keyset cursor of a paged query: the value of the sort key and
+         * the _id of the last pet of the previous page. Leave them out to get the first page.
+         */
+        public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameters that filter and sort the pets of {@link #CONTENT_URI}, paged or not.
+         * Every filter given has to match: the gender (one of the GENDER_* values), the lowest
+         * and highest weight, and the breed (ignoring case). The sort key is one of the SORT_*
+         * values, and the pets are sorted in descending order if the descending parameter is
+         * true. Each combination is backed by an index. Use {@link PetFilter} to build them.
+         */
+        public static final String QUERY_PARAMETER_GENDER = "gender";
+        public static final String QUERY_PARAMETER_MIN_WEIGHT = "min_weight";
+        public static final String QUERY_PARAMETER_MAX_WEIGHT = "max_weight";
+        public static final String QUERY_PARAMETER_BREED = "breed";
+        public static final String QUERY_PARAMETER_SORT = "sort";
+        public static final String QUERY_PARAMETER_DESCENDING = "descending";
+
+        /**
+         * Sort keys for {@link #QUERY_PARAMETER_SORT}, which are also the columns they sort by
+         */
+        public static final String SORT_NAME = COLUMN_PET_NAME;
+        public static final String SORT_WEIGHT = COLUMN_PET_WEIGHT;
+
+        /**
+         * Query parameters for a bulk insert into {@link #CONTENT_URI} that is a chunk of an
+         * import: the import's source and the number of its rows read so far. They are stored in
+         * {@link ImportEntry} in the same transaction as the pets.
+         */
+        public static final String QUERY_PARAMETER_IMPORT_SOURCE = "import_source";
+        public static final String QUERY_PARAMETER_IMPORT_ROWS_READ = "import_rows_read";
+
+        /**
+         * Build the URI to bulk insert one chunk of the import of the given source, which ends
+         * after the given number of rows of the source.
+         */
+        public static Uri buildImportChunkUri(String source, long rowsRead) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_IMPORT_SOURCE, source)
+                    .appendQueryParameter(QUERY_PARAMETER_IMPORT_ROWS_READ, String.valueOf(rowsRead))
+                    .build();
+        }
+
+        /**
+         * URI to open to read an export of every pet. Use {@link #buildExportUri} to choose the
+         * format and compression.
+         */
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * Query parameters of {@link #EXPORT_URI}: the format, {@link #EXPORT_FORMAT_CSV} (the
+         * default) or {@link #EXPORT_FORMAT_JSON}, and whether to gzip the export.
+         */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+        public static final String QUERY_PARAMETER_GZIP = "gzip";
+
+        /**
+         * Query parameter of a thumbnail URI with the name of the photo to open the thumbnail
+         * of. It is only opened while that is still the pet's photo.
+         */
+        public static final String QUERY_PARAMETER_PHOTO = "photo";
+
+        /**
+         * Export formats. CSV has a header row with the column names; JSON is an array with one
+         * object per pet.
+         */
+        public static final String EXPORT_FORMAT_CSV = "csv";
+        public static final String EXPORT_FORMAT_JSON = "json";
+
+        /**
+         * The columns of an export, in order
+         */
+        public static final String[] EXPORT_COLUMNS = {
+                _ID,
+                COLUMN_PET_NAME,
+                COLUMN_PET_BREED,
+                COLUMN_PET_GENDER,
+                COLUMN_PET_WEIGHT
+        };
+
+        /**
+         * Base URI to search pets. Use {@link #buildSearchUri} to add the search text.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * Build the URI that finds the pets whose name or breed has words starting with the
+         * words of the given text. Results are ranked with the pets whose name starts with the
+         * text first, and at most limit of them are returned.
+         */
+        public static Uri buildSearchUri(String query, int limit) {
+            return SEARCH_URI.buildUpon()
+                    .appendPath(query)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Build the URI for the first page of pets, holding at most limit pets.
+         */
+        public static Uri buildPageUri(int limit) {
+            return buildPageUri(limit, PetFilter.ALL);
+        }
+
+        /**
+         * Build the URI for the page of pets that follows the pet with the given name and id.
+         */
+        public static Uri buildPageUri(int limit, String afterName, long afterId) {
+            return buildPageUri(limit, PetFilter.ALL, afterName, afterId);
+        }
+
+        /**
+         * Build the URI for the first page of the pets the filter lets through, in its order.
+         */
+        public static Uri buildPageUri(int limit, PetFilter filter) {
+            return filter.appendTo(CONTENT_URI.buildUpon())
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Build the URI for the page of the pets the filter lets through that follows the pet
+         * with the given sort key value and id.
+         */
+        public static Uri buildPageUri(int limit, PetFilter filter, String afterKey, long afterId) {
+            return filter.appendTo(CONTENT_URI.buildUpon())
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey)
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .build();
+        }
+
+        /**
+         * Build the URI to read an export of every pet in the given format, gzipped or not.
+         */
+        public static Uri buildExportUri(String format, boolean gzip) {
+            return EXPORT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format)
+                    .appendQueryParameter(QUERY_PARAMETER_GZIP, String.valueOf(gzip))
+                    .build();
+        }
+
+        /**
+         * Build the URI of the photo of the pet with the given id. Open it for reading to get the
+         * original photo, or with mode "w" to replace it; a thumbnail is made from every photo
+         * written. Only readable while the pet has a photo.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_PHOTO)
+                    .build();
+        }
+
+        /**
+         * Build the URI of the thumbnail of the pet with the given id, a JPEG image of
+         * {@link #THUMBNAIL_SIZE_PX} pixels square. Only readable while the pet has a photo.
+         */
+        public static Uri buildThumbnailUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_THUMBNAIL)
+                    .build();
+        }
+
+        /**
+         * Build the URI of the thumbnail of the given photo of the pet with the given id. Unlike
+         * {@link #buildThumbnailUri(long)}, it never opens a newer photo's thumbnail, so the
+         * image is known to belong to that photo name.
+         */
+        public static Uri buildThumbnailUri(long id, String photo) {
+            return buildThumbnailUri(id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_PHOTO, photo)
+                    .build();
+        }
+
+        /**
+         * Width and height of the pet thumbnails, in pixels. They are all the same size so their
+         * bitmaps can be reused for one another.
+         */
+        public static final int THUMBNAIL_SIZE_PX = 192;
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -89,4 +492,254 @@ public final class PetContract {
 
     }
 
+    /**
+     * Progress of the imports of pet rosters, one row per source being imported. A row is
+     * written in the same transaction as each chunk of imported pets, so after a crash an import
+     * can carry on right after the last chunk that was committed.
+     */
+    public static abstract class ImportEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "imports";
+
+        public static final String _ID = BaseColumns._ID;
+
+        /**
+         * The URI of the roster being imported
+         */
+        public static final String COLUMN_SOURCE = "source";
+
+        /**
+         * Number of rows of the roster, good or bad, handled by the committed chunks
+         */
+        public static final String COLUMN_ROWS_READ = "rows_read";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_IMPORTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of imports.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_IMPORTS;
+    }
+
+    /**
+     * The breed dictionary: every breed pets have been given, stored once. Pets refer to their
+     * breed by {@link PetEntry#COLUMN_PET_BREED_ID}. Breeds that only differ in case are one
+     * breed, spelled the way it was first written, and an empty breed is no breed. Breeds are
+     * added by the provider when a pet is written with a new one, so the dictionary is read
+     * only.
+     * <p>
+     * {@link #CONTENT_URI} lists the breeds sorted by name. {@link #buildPrefixUri} only lists
+     * the ones starting with some text, ignoring case, for completing a breed as it is typed.
+     */
+    public static abstract class BreedEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "breeds";
+
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_BREED_NAME = "name";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_BREEDS);
+
+        /**
+         * Query parameter with the text the breeds listed have to start with
+         */
+        public static final String QUERY_PARAMETER_PREFIX = "prefix";
+
+        /**
+         * Build the URI of the first breeds, up to the given number of them, that start with the
+         * given text.
+         */
+        public static Uri buildPrefixUri(String prefix, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_PREFIX, prefix)
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of breeds.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_BREEDS;
+    }
+
+    /**
+     * Statistics of the pets that haven't been deleted, kept up to date by triggers on the pets
+     * table, so reading them doesn't depend on the number of pets.
+     * <p>
+     * {@link #CONTENT_URI} has a row for each gender that has pets, sorted by gender, with its
+     * number of pets, total, average and maximum weight. {@link #BREEDS_CONTENT_URI} has a row
+     * for each breed, with its number of pets, sorted from the most common breed down; add
+     * {@link PetEntry#QUERY_PARAMETER_LIMIT} to only get the top breeds. Breeds are counted by
+     * {@link #COLUMN_BREED_ID}, and pets without a breed under an empty breed with id 0.
+     */
+    public static abstract class StatsEntry {
+
+        /**
+         * Tables holding the statistics by gender and by breed
+         */
+        public static final String GENDER_TABLE_NAME = "pet_gender_stats";
+        public static final String BREED_TABLE_NAME = "pet_breed_stats";
+
+        public static final String COLUMN_GENDER = PetEntry.COLUMN_PET_GENDER;
+        public static final String COLUMN_BREED = PetEntry.COLUMN_PET_BREED;
+        public static final String COLUMN_BREED_ID = PetEntry.COLUMN_PET_BREED_ID;
+        public static final String COLUMN_PET_COUNT = "pet_count";
+        public static final String COLUMN_TOTAL_WEIGHT = "total_weight";
+
+        /**
+         * Computed when read, as the total weight over the number of pets
+         */
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+
+        /**
+         * Read from the gender and weight index when queried, rather than stored, since a
+         * maximum can't be kept up to date when the heaviest pet goes
+         */
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        public static final Uri BREEDS_CONTENT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_BREEDS);
+
+        /**
+         * Build the URI of the given number of most common breeds.
+         */
+        public static Uri buildTopBreedsUri(int limit) {
+            return BREEDS_CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * The MIME types of {@link #CONTENT_URI} and {@link #BREEDS_CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_STATS;
+        public static final String BREEDS_CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_STATS + "/" + PATH_BREEDS;
+    }
+
+    /**
+     * The local changes that haven't been pushed to the server yet. Every insert, update and
+     * delete of a pet that doesn't come from a sync adapter adds a row to the change log, in the
+     * same transaction as the change, with a sequence number one higher than the last one.
+     * <p>
+     * {@link #CONTENT_URI} has a row for each pet with pending changes, sorted by sequence
+     * number, with the pet as it is now: the _id of the row is the sequence number of the
+     * pet's latest change, and {@link #COLUMN_SYNC_VERSION} the server version the change was
+     * based on. {@link PetEntry#QUERY_PARAMETER_LIMIT} keeps the first rows. Sync adapters
+     * delete the changes they have pushed, by sequence number, and update the version of the
+     * ones they haven't. Only the default shelter is synced, so only its changes are logged.
+     */
+    public static abstract class ChangeEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "pet_changes";
+
+        /**
+         * The pending changes, one row per pet, as read from {@link #CONTENT_URI}
+         */
+        public static final String VIEW_NAME = "pet_pending_changes";
+
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_SYNC_ID = PetEntry.COLUMN_PET_SYNC_ID;
+        public static final String COLUMN_SYNC_VERSION = PetEntry.COLUMN_PET_SYNC_VERSION;
+
+        /**
+         * 1 if the pet has been deleted, or purged, since it was changed; 0 otherwise. Only in
+         * the rows of {@link #CONTENT_URI}, along with the columns of the pet.
+         */
+        public static final String COLUMN_DELETED = "deleted";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI,
+                PATH_CHANGES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the list of pending changes.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_CHANGES;
+    }
+
+    /**
+     * The sync state of the pets: a single row that sync adapters read and update.
+     */
+    public static abstract class SyncStateEntry {
+
+        public static final String TABLE_NAME = "sync_state";
+
+        /**
+         * The highest server version pulled so far. The next pull asks for what came after it.
+         */
+        public static final String COLUMN_PULLED_VERSION = "pulled_version";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI,
+                PATH_SYNC_STATE);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_SYNC_STATE;
+    }
+
+    /**
+     * The shelters, each of which keeps its pets in a database file of its own, so writes to
+     * one shelter never wait for another.
+     * <p>
+     * {@link #buildPetsUri} returns the pets URI of a shelter, which takes the same queries,
+     * inserts, updates and deletes as {@link PetEntry#CONTENT_URI}, with the id of a pet
+     * appended for a single pet. {@link PetEntry#CONTENT_URI} itself is the pets URI of
+     * {@link #DEFAULT_SHELTER_ID}. Photos, exports, imports, search and statistics are only
+     * available for the default shelter.
+     * <p>
+     * {@link #ALL_PETS_URI} lists the pets of every shelter, read from all of them in parallel
+     * and merged by the sort parameters of {@link PetEntry}. It takes the filter and sort
+     * parameters, but not a sort order or the page key parameters, and adds
+     * {@link #COLUMN_SHELTER_ID} to every row. {@link PetEntry#QUERY_PARAMETER_LIMIT} is
+     * required, since every shelter reads up to that many pets; use {@link #buildAllPetsUri}.
+     */
+    public static abstract class ShelterEntry {
+
+        /**
+         * The shelter whose pets are at {@link PetEntry#CONTENT_URI}
+         */
+        public static final long DEFAULT_SHELTER_ID = 0;
+
+        /**
+         * Id of the shelter a pet of {@link #ALL_PETS_URI} belongs to
+         */
+        public static final String COLUMN_SHELTER_ID = "shelter_id";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SHELTERS);
+
+        public static final Uri ALL_PETS_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_ALL_SHELTERS)
+                .appendPath(PATH_PETS)
+                .build();
+
+        /**
+         * Build the URI for the first pets of every shelter the filter lets through, in its
+         * order, holding at most limit pets.
+         */
+        public static Uri buildAllPetsUri(int limit, PetFilter filter) {
+            return filter.appendTo(ALL_PETS_URI.buildUpon())
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Build the URI of the pets of the given shelter.
+         */
+        public static Uri buildPetsUri(long shelterId) {
+            if (shelterId == DEFAULT_SHELTER_ID) {
+                return PetEntry.CONTENT_URI;
+            }
+            return ContentUris.withAppendedId(CONTENT_URI, shelterId).buildUpon()
+                    .appendPath(PATH_PETS)
+                    .build();
+        }
+    }
+
 }
@@ -1,81 +1,315 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.text.TextUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.example.android.pets.R;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 /**
- * {@link PetCursorAdapter} is an adapter for a list or grid view
- * that uses a {@link Cursor} of pet data as its data source. This adapter knows
- * how to create list items for each row of pet data in the {@link Cursor}.
+ * {@link PetCursorAdapter} is an adapter for a {@link RecyclerView} that shows the pets loaded
+ * by a {@link PetPager}. This adapter knows how to create list items for each row of pet data.
+ * <p>
+ * When new rows arrive, they are compared with the rows being shown by _id and contents on a
+ * background thread, and only the rows that were inserted, removed, moved or changed are
+ * updated. Editing one pet rebinds that pet's row instead of the whole list.
+ * <p>
+ * Binding a row doesn't allocate: the views of each list item are kept in a {@link ViewHolder},
+ * the column indexes are looked up once per cursor, and the text is copied from the cursor into
+ * character buffers owned by the list item instead of being read as new Strings. The photo name
+ * is copied into a buffer too, and only read as a String when it differs from the one the
+ * item's thumbnail was loaded for, to look the new thumbnail up in the
+ * {@link PetThumbnailLoader}, which never decodes on the main thread.
  */
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends RecyclerView.Adapter<PetCursorAdapter.ViewHolder> {
+
+    /**
+     * Receives clicks on the pets in the list.
+     */
+    public interface OnPetClickListener {
+
+        /**
+         * Called with the _id of the pet that was clicked
+         */
+        void onPetClick(long id);
+    }
+
+    /**
+     * Computes the differences between the old and the new rows, for every adapter
+     */
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final LayoutInflater mInflater;
+
+    private final OnPetClickListener mListener;
+
+    /**
+     * Text shown when a pet has no breed, looked up once
+     */
+    private final CharSequence mUnknownBreed;
+
+    private final PetThumbnailLoader mThumbnailLoader;
+
+    /**
+     * The rows being shown, or null when there are none
+     */
+    private PetPager.Rows mRows;
+
+    /**
+     * Indexes of the name, breed and photo columns in the current cursor
+     */
+    private int mNameColumnIndex = -1;
+    private int mBreedColumnIndex = -1;
+    private int mPhotoColumnIndex = -1;
+
+    /**
+     * Incremented by every swap, so a diff that finishes after a newer swap is thrown away
+     */
+    private int mGeneration;
 
     /**
      * Constructs a new {@link PetCursorAdapter}.
      *
-     * @param context The context
-     * @param c       The cursor from which to get the data.
+     * @param context  The context
+     * @param listener Receives clicks on the pets
      */
-    public PetCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
+    public PetCursorAdapter(Context context, OnPetClickListener listener) {
+        mInflater = LayoutInflater.from(context);
+        mListener = listener;
+        mUnknownBreed = context.getText(R.string.unknown_breed);
+        mThumbnailLoader = new PetThumbnailLoader(context.getContentResolver(),
+                R.drawable.pet_photo_placeholder);
+        setHasStableIds(true);
     }
 
     /**
-     * Makes a new blank list item view. No data is set (or bound) to the views yet.
-     *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * Show the given rows, or nothing if they are null. The rows are diffed against the current
+     * ones in the background and swapped in afterwards; the rows they replace are released then.
+     * Clearing the rows happens straight away.
      */
+    public void swapRows(final PetPager.Rows newRows) {
+        final int generation = ++mGeneration;
+        final PetPager.Rows oldRows = mRows;
+
+        if (newRows == null || oldRows == null) {
+            // Nothing to compare with
+            setRows(newRows);
+            notifyDataSetChanged();
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Only the ids and contents copied by the pager are read here, never the cursors
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                        new RowsDiffCallback(oldRows, newRows));
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // Newer rows were swapped in while this diff was running
+                            newRows.release();
+                            return;
+                        }
+                        setRows(newRows);
+                        result.dispatchUpdatesTo(PetCursorAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    private void setRows(PetPager.Rows rows) {
+        PetPager.Rows oldRows = mRows;
+        mRows = rows;
+
+        if (rows == null) {
+            mNameColumnIndex = -1;
+            mBreedColumnIndex = -1;
+            mPhotoColumnIndex = -1;
+        } else {
+            // Get the index for the name, breed and photo columns
+            Cursor cursor = rows.getCursor();
+            mNameColumnIndex = cursor.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_NAME);
+            mBreedColumnIndex = cursor.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_BREED);
+            mPhotoColumnIndex = cursor.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_PHOTO);
+        }
+
+        if (oldRows != null) {
+            oldRows.release();
+        }
+    }
+
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+    public int getItemCount() {
+        return mRows == null ? 0 : mRows.getCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRows.getId(position);
     }
 
     /**
-     * This method binds the pet data (in the current row pointed to by cursor) to the given
-     * list item layout. For example, the name for the current pet can be set on the name TextView
-     * in the list item layout.
-     *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        // Find resources for name and summary text views in list_item
-        TextView nameTv = (TextView) view.findViewById(R.id.name);
-        TextView summaryTv = (TextView) view.findViewById(R.id.summary);
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = mInflater.inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view, mListener);
+    }
 
-        // Get the index for both the name and breed columns
-        int nameColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_NAME);
-        int breedColumnIndex = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_BREED);
+    /**
+     * This method binds the pet data at the given position to the given list item. For example,
+     * the name for the current pet can be set on the name TextView in the list item layout.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        Cursor cursor = mRows.getCursor();
+        cursor.moveToPosition(position);
 
-        // Read the pet attributes from the Cursor for the current pet
-        String petName = cursor.getString(nameColumnIndex);
-        String petBreed = cursor.getString(breedColumnIndex);
+        // Copy the pet attributes from the Cursor for the current pet into the item's buffers
+        cursor.copyStringToBuffer(mNameColumnIndex, holder.nameBuffer);
+        cursor.copyStringToBuffer(mBreedColumnIndex, holder.breedBuffer);
 
+        // Update the text views with the current pet's info
+        holder.nameTextView.setText(holder.nameBuffer.data, 0, holder.nameBuffer.sizeCopied);
 
         // If the pet breed is empty string or null, then use some default text
         // that says "Unknown breed", so the TextView isn't blank.
-        if (TextUtils.isEmpty(petBreed)) {
-            petBreed = context.getString(R.string.unknown_breed);
+        if (holder.breedBuffer.sizeCopied == 0) {
+            holder.summaryTextView.setText(mUnknownBreed);
+        } else {
+            holder.summaryTextView.setText(holder.breedBuffer.data, 0,
+                    holder.breedBuffer.sizeCopied);
+        }
+
+        // Show the thumbnail from the memory cache, or start loading it in the background, unless
+        // the item already shows the thumbnail of this photo
+        cursor.copyStringToBuffer(mPhotoColumnIndex, holder.newPhotoBuffer);
+        if (!holder.photoLoaded || !equals(holder.newPhotoBuffer, holder.photoBuffer)) {
+            CharArrayBuffer loadedPhotoBuffer = holder.photoBuffer;
+            holder.photoBuffer = holder.newPhotoBuffer;
+            holder.newPhotoBuffer = loadedPhotoBuffer;
+            holder.photoLoaded = true;
 
+            // An empty buffer is a null photo; photo names are never empty
+            String photo = holder.photoBuffer.sizeCopied == 0
+                    ? null
+                    : new String(holder.photoBuffer.data, 0, holder.photoBuffer.sizeCopied);
+            mThumbnailLoader.load(holder.photoImageView, mRows.getId(position), photo);
         }
+    }
 
-        // Update the text views with the current pet's info
-        nameTv.setText(petName);
-        summaryTv.setText(petBreed);
+    /**
+     * Let go of the thumbnail of a list item that scrolled away, so its bitmap can be reused.
+     */
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        mThumbnailLoader.clear(holder.photoImageView);
+        holder.photoLoaded = false;
+    }
+
+    private static boolean equals(CharArrayBuffer a, CharArrayBuffer b) {
+        if (a.sizeCopied != b.sizeCopied) {
+            return false;
+        }
+        for (int i = 0; i < a.sizeCopied; i++) {
+            if (a.data[i] != b.data[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The views of a list item and the buffers holding their text. The buffers grow to fit the
+     * longest text they have held and are then reused for every row the item shows.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView nameTextView;
+        final TextView summaryTextView;
+        final ImageView photoImageView;
+        final CharArrayBuffer nameBuffer = new CharArrayBuffer(32);
+        final CharArrayBuffer breedBuffer = new CharArrayBuffer(32);
+
+        /**
+         * The photo name the thumbnail was loaded for, and the one of the row being bound. They
+         * swap whenever the photo changes. photoLoaded is false until the first thumbnail is
+         * loaded, and again once the item has been recycled.
+         */
+        CharArrayBuffer photoBuffer = new CharArrayBuffer(32);
+        CharArrayBuffer newPhotoBuffer = new CharArrayBuffer(32);
+        boolean photoLoaded;
+
+        private final OnPetClickListener mListener;
+
+        ViewHolder(View view, OnPetClickListener listener) {
+            super(view);
+            mListener = listener;
+
+            // Find resources for name and summary text views in list_item
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+            photoImageView = (ImageView) view.findViewById(R.id.photo);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            // The item may be on its way out of the list
+            if (getAdapterPosition() != RecyclerView.NO_POSITION) {
+                mListener.onPetClick(getItemId());
+            }
+        }
+    }
+
+    /**
+     * Compares two sets of rows by pet id, and the rows of the same pet by their contents.
+     */
+    private static class RowsDiffCallback extends DiffUtil.Callback {
+        private final PetPager.Rows mOldRows;
+        private final PetPager.Rows mNewRows;
+
+        RowsDiffCallback(PetPager.Rows oldRows, PetPager.Rows newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.getCount();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.getCount();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOldRows.getId(oldPosition) == mNewRows.getId(newPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return mOldRows.contentEquals(oldPosition, mNewRows, newPosition);
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,32 +1,1006 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.example.android.pets.CatalogActivity;
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.ChangeEntry;
+import com.example.android.pets.data.PetContract.ImportEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+import com.example.android.pets.data.PetContract.StatsEntry;
+import com.example.android.pets.data.PetContract.SyncStateEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PetDbHelper extends SQLiteOpenHelper {
 
     /**
      * Database version. If you change the database schema, you have to increment the version
+     * and add a {@link Migration} to {@link #MIGRATIONS} that brings the previous version up
+     * to date.
      **/
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 12;
+
+    /**
+     * The version of the schema created by {@link #onCreate}. Newer versions are reached by
+     * running the migrations, so fresh installs and upgraded installs end up with the same schema.
+     */
+    private static final int BASE_VERSION = 1;
 
     /**
-     * The name of the database file
+     * The name of the database file of the default shelter
      **/
     private static final String DATABASE_NAME = "shelter.db";
 
+    /**
+     * Names of the database files of the other shelters, with the shelter id in the middle
+     */
+    private static final String SHELTER_DATABASE_PREFIX = "shelter-";
+    private static final String SHELTER_DATABASE_SUFFIX = ".db";
+
     private static final String LOG_TAG = PetDbHelper.class.getSimpleName();
 
+    /**
+     * Values for {@link #PetDbHelper(Context, int, int, int)}'s synchronous level, see
+     * https://www.sqlite.org/pragma.html#pragma_synchronous. In WAL mode NORMAL never corrupts
+     * the database; a power loss can only roll back the most recent commits.
+     */
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    /**
+     * Default page size, in bytes. It only applies when the database file is created.
+     */
+    private static final int DEFAULT_PAGE_SIZE = 4096;
+
+    /**
+     * Default page cache size of the writer connection, in KiB
+     */
+    private static final int DEFAULT_CACHE_SIZE_KB = 2048;
+
+    /**
+     * Number of WAL pages after which SQLite checkpoints on its own, in the thread that commits.
+     * It is only a safety net: {@link #scheduleCheckpoint()} normally gets there first, on a
+     * background thread.
+     */
+    private static final int WAL_AUTO_CHECKPOINT_PAGES = 4000;
+
+    /**
+     * How long after the last write the background checkpoint runs, in milliseconds
+     */
+    private static final long CHECKPOINT_DELAY_MILLIS = 1000;
+
+    /**
+     * Number of deleted pets purged per transaction by the compaction, so it never holds the
+     * write lock for long
+     */
+    private static final int COMPACTION_BATCH_SIZE = 200;
+
+    /**
+     * How long after the provider starts the first compaction runs, in milliseconds
+     */
+    private static final long COMPACTION_STARTUP_DELAY_MILLIS = 30 * 1000;
+
+    /**
+     * Value of PRAGMA auto_vacuum that lets free pages be given back with incremental_vacuum
+     */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Selection of the deleted pets that are due to be purged
+     */
+    private static final String SQL_SELECT_PURGEABLE = "SELECT " + PetEntry._ID
+            + " FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_PET_DELETED_AT + " IS NOT NULL"
+            + " AND " + PetEntry.COLUMN_PET_DELETED_AT + " <= ?"
+            + " LIMIT " + COMPACTION_BATCH_SIZE;
+
+    /**
+     * The statistics by gender and by breed, recomputed from every pet that hasn't been deleted
+     */
+    private static final String SQL_COMPUTE_GENDER_STATS = "SELECT "
+            + PetEntry.COLUMN_PET_GENDER + ", COUNT(*), SUM(" + PetEntry.COLUMN_PET_WEIGHT + ")"
+            + " FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL"
+            + " GROUP BY " + PetEntry.COLUMN_PET_GENDER;
+    private static final String SQL_COMPUTE_BREED_STATS = "SELECT IFNULL("
+            + PetEntry.COLUMN_PET_BREED_ID + ", 0), COUNT(*)"
+            + " FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL"
+            + " GROUP BY " + PetEntry.COLUMN_PET_BREED_ID;
+
+    /**
+     * The statistics as stored. Genders keep their row once their last pet is gone.
+     */
+    private static final String SQL_SELECT_GENDER_STATS = "SELECT "
+            + StatsEntry.COLUMN_GENDER + ", " + StatsEntry.COLUMN_PET_COUNT + ", "
+            + StatsEntry.COLUMN_TOTAL_WEIGHT + " FROM " + StatsEntry.GENDER_TABLE_NAME
+            + " WHERE " + StatsEntry.COLUMN_PET_COUNT + " != 0";
+    private static final String SQL_SELECT_BREED_STATS = "SELECT "
+            + StatsEntry.COLUMN_BREED_ID + ", " + StatsEntry.COLUMN_PET_COUNT
+            + " FROM " + StatsEntry.BREED_TABLE_NAME
+            + " WHERE " + StatsEntry.COLUMN_PET_COUNT + " != 0";
+
+    /**
+     * Number of rows that are in the stored statistics but not the recomputed ones, or the
+     * other way around
+     */
+    private static final String SQL_COUNT_STATS_MISMATCHES = "SELECT "
+            + countExcept(SQL_SELECT_GENDER_STATS, SQL_COMPUTE_GENDER_STATS) + " + "
+            + countExcept(SQL_COMPUTE_GENDER_STATS, SQL_SELECT_GENDER_STATS) + " + "
+            + countExcept(SQL_SELECT_BREED_STATS, SQL_COMPUTE_BREED_STATS) + " + "
+            + countExcept(SQL_COMPUTE_BREED_STATS, SQL_SELECT_BREED_STATS);
+
+    /**
+     * Schema changes, in the order they have to be applied. Each one brings the database from
+     * the previous version up to {@link Migration#toVersion}. Never edit a migration once it
+     * has shipped; add a new one instead.
+     */
+    private static final Migration[] MIGRATIONS = {
+
+            // Version 2: indexes for sorting and filtering the catalog by name, breed and gender
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX pets_name_index ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE);");
+                    db.execSQL("CREATE INDEX pets_breed_index ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_BREED + ");");
+                    db.execSQL("CREATE INDEX pets_gender_weight_index ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_GENDER + ", "
+                            + PetEntry.COLUMN_PET_WEIGHT + ");");
+                }
+            },
+
+            // Version 3: full-text index over name and breed, kept in sync by triggers
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE VIRTUAL TABLE " + PetEntry.FTS_TABLE_NAME + " USING fts4("
+                            + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + ");");
+
+                    // Index the pets that already exist
+                    db.execSQL("INSERT INTO " + PetEntry.FTS_TABLE_NAME + " (docid, "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME + ";");
+
+                    db.execSQL("CREATE TRIGGER pets_fts_insert AFTER INSERT ON "
+                            + PetEntry.TABLE_NAME + " BEGIN"
+                            + " INSERT INTO " + PetEntry.FTS_TABLE_NAME + " (docid, "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " VALUES (NEW." + PetEntry._ID + ", NEW." + PetEntry.COLUMN_PET_NAME
+                            + ", NEW." + PetEntry.COLUMN_PET_BREED + "); END;");
+
+                    db.execSQL("CREATE TRIGGER pets_fts_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                            + " ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + PetEntry.FTS_TABLE_NAME + " SET "
+                            + PetEntry.COLUMN_PET_NAME + " = NEW." + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " = NEW." + PetEntry.COLUMN_PET_BREED
+                            + " WHERE docid = OLD." + PetEntry._ID + "; END;");
+
+                    db.execSQL("CREATE TRIGGER pets_fts_delete AFTER DELETE ON "
+                            + PetEntry.TABLE_NAME + " BEGIN"
+                            + " DELETE FROM " + PetEntry.FTS_TABLE_NAME
+                            + " WHERE docid = OLD." + PetEntry._ID + "; END;");
+                }
+            },
+
+            // Version 4: photos, stored as files named by the photo column
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                            + PetEntry.COLUMN_PET_PHOTO + " TEXT;");
+                }
+            },
+
+            // Version 5: progress of roster imports, so they can be resumed
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + ImportEntry.TABLE_NAME + " ("
+                            + ImportEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + ImportEntry.COLUMN_SOURCE + " TEXT NOT NULL UNIQUE, "
+                            + ImportEntry.COLUMN_ROWS_READ + " INTEGER NOT NULL DEFAULT 0);");
+                }
+            },
+
+            // Version 6: deleted pets are kept as tombstones until the compaction purges them
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                            + PetEntry.COLUMN_PET_DELETED_AT + " INTEGER;");
+
+                    // Partial indexes need SQLite 3.8.0 (Lollipop). Older platforms scan the
+                    // name index and skip the tombstones, and index every deletion time.
+                    if (supportsPartialIndexes(db)) {
+                        db.execSQL("CREATE INDEX pets_live_name_index ON " + PetEntry.TABLE_NAME
+                                + " (" + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE, "
+                                + PetEntry._ID + ") WHERE "
+                                + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL;");
+                        db.execSQL("CREATE INDEX pets_deleted_at_index ON " + PetEntry.TABLE_NAME
+                                + " (" + PetEntry.COLUMN_PET_DELETED_AT + ") WHERE "
+                                + PetEntry.COLUMN_PET_DELETED_AT + " IS NOT NULL;");
+                    } else {
+                        db.execSQL("CREATE INDEX pets_deleted_at_index ON " + PetEntry.TABLE_NAME
+                                + " (" + PetEntry.COLUMN_PET_DELETED_AT + ");");
+                    }
+                }
+            },
+
+            // Version 7: indexes for every combination of the catalog's filters and sort keys,
+            // each ending with the sort key and _id so filtered pages come straight off them.
+            // They replace the breed and gender indexes of version 2. Without partial indexes
+            // they cover the deleted pets too, like in version 6.
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    String live = supportsPartialIndexes(db)
+                            ? " WHERE " + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL;"
+                            : ";";
+
+                    db.execSQL("DROP INDEX pets_breed_index;");
+                    db.execSQL("DROP INDEX pets_gender_weight_index;");
+
+                    db.execSQL("CREATE INDEX pets_live_weight_index ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry._ID + ")"
+                            + live);
+                    db.execSQL("CREATE INDEX pets_live_gender_name_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + ", "
+                            + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE, " + PetEntry._ID + ")"
+                            + live);
+                    db.execSQL("CREATE INDEX pets_live_gender_weight_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + ", "
+                            + PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry._ID + ")" + live);
+                    db.execSQL("CREATE INDEX pets_live_breed_name_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED
+                            + " COLLATE NOCASE, " + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE, "
+                            + PetEntry._ID + ")" + live);
+                }
+            },
+
+            // Version 8: statistics by gender and breed, kept up to date by triggers. Only pets
+            // that haven't been deleted count, so deleting, undoing and purging are triggers too.
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + StatsEntry.GENDER_TABLE_NAME + " ("
+                            + StatsEntry.COLUMN_GENDER + " INTEGER PRIMARY KEY, "
+                            + StatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                            + StatsEntry.COLUMN_TOTAL_WEIGHT + " INTEGER NOT NULL DEFAULT 0);");
+                    db.execSQL("CREATE TABLE " + StatsEntry.BREED_TABLE_NAME + " ("
+                            + StatsEntry.COLUMN_BREED + " TEXT PRIMARY KEY COLLATE NOCASE, "
+                            + StatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+
+                    // Count the pets that already exist
+                    db.execSQL("INSERT INTO " + StatsEntry.GENDER_TABLE_NAME + " ("
+                            + StatsEntry.COLUMN_GENDER + ", " + StatsEntry.COLUMN_PET_COUNT + ", "
+                            + StatsEntry.COLUMN_TOTAL_WEIGHT + ") SELECT "
+                            + PetEntry.COLUMN_PET_GENDER + ", COUNT(*), SUM("
+                            + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME
+                            + " WHERE " + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL GROUP BY "
+                            + PetEntry.COLUMN_PET_GENDER + ";");
+                    db.execSQL("INSERT INTO " + StatsEntry.BREED_TABLE_NAME + " ("
+                            + StatsEntry.COLUMN_BREED + ", " + StatsEntry.COLUMN_PET_COUNT
+                            + ") SELECT IFNULL(" + PetEntry.COLUMN_PET_BREED + ", ''), COUNT(*)"
+                            + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                            + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL GROUP BY IFNULL("
+                            + PetEntry.COLUMN_PET_BREED + ", '') COLLATE NOCASE;");
+
+                    db.execSQL("CREATE TRIGGER pets_stats_insert AFTER INSERT ON "
+                            + PetEntry.TABLE_NAME + " WHEN NEW." + PetEntry.COLUMN_PET_DELETED_AT
+                            + " IS NULL BEGIN " + countPet("NEW", 1) + " END;");
+                    db.execSQL("CREATE TRIGGER pets_stats_delete AFTER DELETE ON "
+                            + PetEntry.TABLE_NAME + " WHEN OLD." + PetEntry.COLUMN_PET_DELETED_AT
+                            + " IS NULL BEGIN " + countPet("OLD", -1) + " END;");
+
+                    // An update takes the old row out of the statistics and puts the new one in
+                    String updateOf = " AFTER UPDATE OF " + PetEntry.COLUMN_PET_GENDER + ", "
+                            + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_WEIGHT + ", "
+                            + PetEntry.COLUMN_PET_DELETED_AT + " ON " + PetEntry.TABLE_NAME;
+                    db.execSQL("CREATE TRIGGER pets_stats_update_old" + updateOf
+                            + " WHEN OLD." + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL BEGIN "
+                            + countPet("OLD", -1) + " END;");
+                    db.execSQL("CREATE TRIGGER pets_stats_update_new" + updateOf
+                            + " WHEN NEW." + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL BEGIN "
+                            + countPet("NEW", 1) + " END;");
+                }
+
+                /**
+                 * Returns the trigger statements that add the given row (NEW or OLD) to the
+                 * statistics, or take it out of them for a change of -1. Rows are created the
+                 * first time they are needed, and breeds dropped once they have no pets left.
+                 */
+                private String countPet(String row, int change) {
+                    String gender = row + "." + PetEntry.COLUMN_PET_GENDER;
+                    String weight = row + "." + PetEntry.COLUMN_PET_WEIGHT;
+                    String breed = "IFNULL(" + row + "." + PetEntry.COLUMN_PET_BREED + ", '')";
+                    String sign = change > 0 ? " + " : " - ";
+
+                    String sql = "UPDATE " + StatsEntry.GENDER_TABLE_NAME + " SET "
+                            + StatsEntry.COLUMN_PET_COUNT + " = " + StatsEntry.COLUMN_PET_COUNT
+                            + sign + "1, " + StatsEntry.COLUMN_TOTAL_WEIGHT + " = "
+                            + StatsEntry.COLUMN_TOTAL_WEIGHT + sign + weight + " WHERE "
+                            + StatsEntry.COLUMN_GENDER + " = " + gender + ";"
+                            + " UPDATE " + StatsEntry.BREED_TABLE_NAME + " SET "
+                            + StatsEntry.COLUMN_PET_COUNT + " = " + StatsEntry.COLUMN_PET_COUNT
+                            + sign + "1 WHERE " + StatsEntry.COLUMN_BREED + " = " + breed + ";";
+                    if (change > 0) {
+                        sql = "INSERT OR IGNORE INTO " + StatsEntry.GENDER_TABLE_NAME + " ("
+                                + StatsEntry.COLUMN_GENDER + ") VALUES (" + gender + ");"
+                                + " INSERT OR IGNORE INTO " + StatsEntry.BREED_TABLE_NAME + " ("
+                                + StatsEntry.COLUMN_BREED + ") VALUES (" + breed + "); " + sql;
+                    } else {
+                        sql += " DELETE FROM " + StatsEntry.BREED_TABLE_NAME + " WHERE "
+                                + StatsEntry.COLUMN_BREED + " = " + breed + " AND "
+                                + StatsEntry.COLUMN_PET_COUNT + " = 0;";
+                    }
+                    return sql;
+                }
+            },
+
+            // Version 9: sync ids and versions, and the change log of the pets not pushed to the
+            // server yet. Every pet that exists already is a change nobody has pushed.
+            new Migration(9) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                            + PetEntry.COLUMN_PET_SYNC_ID + " TEXT;");
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                            + PetEntry.COLUMN_PET_SYNC_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+                    db.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET "
+                            + PetEntry.COLUMN_PET_SYNC_ID + " = lower(hex(randomblob(16)));");
+                    db.execSQL("CREATE UNIQUE INDEX pets_sync_id_index ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_SYNC_ID + ");");
+
+                    db.execSQL("CREATE TABLE " + ChangeEntry.TABLE_NAME + " ("
+                            + ChangeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + ChangeEntry.COLUMN_SYNC_ID + " TEXT NOT NULL, "
+                            + ChangeEntry.COLUMN_SYNC_VERSION + " INTEGER NOT NULL);");
+                    db.execSQL("CREATE INDEX pet_changes_sync_id_index ON "
+                            + ChangeEntry.TABLE_NAME + " (" + ChangeEntry.COLUMN_SYNC_ID + ", "
+                            + ChangeEntry._ID + ");");
+                    db.execSQL("INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                            + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_SYNC_VERSION
+                            + ") SELECT " + PetEntry.COLUMN_PET_SYNC_ID + ", 0 FROM "
+                            + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_DELETED_AT
+                            + " IS NULL ORDER BY " + PetEntry._ID + ";");
+
+                    // The latest change of each pet, with the pet as it is now
+                    db.execSQL("CREATE VIEW " + ChangeEntry.VIEW_NAME + " AS SELECT c."
+                            + ChangeEntry._ID + " AS " + ChangeEntry._ID + ", c."
+                            + ChangeEntry.COLUMN_SYNC_ID + " AS " + ChangeEntry.COLUMN_SYNC_ID
+                            + ", c." + ChangeEntry.COLUMN_SYNC_VERSION + " AS "
+                            + ChangeEntry.COLUMN_SYNC_VERSION + ", p."
+                            + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME + ", p."
+                            + PetEntry.COLUMN_PET_BREED + " AS " + PetEntry.COLUMN_PET_BREED
+                            + ", p." + PetEntry.COLUMN_PET_GENDER + " AS "
+                            + PetEntry.COLUMN_PET_GENDER + ", p." + PetEntry.COLUMN_PET_WEIGHT
+                            + " AS " + PetEntry.COLUMN_PET_WEIGHT + ", (p." + PetEntry._ID
+                            + " IS NULL OR p." + PetEntry.COLUMN_PET_DELETED_AT
+                            + " IS NOT NULL) AS " + ChangeEntry.COLUMN_DELETED
+                            + " FROM " + ChangeEntry.TABLE_NAME + " c LEFT JOIN "
+                            + PetEntry.TABLE_NAME + " p ON p." + PetEntry.COLUMN_PET_SYNC_ID
+                            + " = c." + ChangeEntry.COLUMN_SYNC_ID + " WHERE c." + ChangeEntry._ID
+                            + " = (SELECT MAX(" + ChangeEntry._ID + ") FROM "
+                            + ChangeEntry.TABLE_NAME + " WHERE " + ChangeEntry.COLUMN_SYNC_ID
+                            + " = c." + ChangeEntry.COLUMN_SYNC_ID + ");");
+
+                    // Local changes, along with the version they were based on. Writes of sync
+                    // adapters are logged too, and taken out of the log by the provider.
+                    String logChange = " BEGIN INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                            + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_SYNC_VERSION
+                            + ") VALUES (NEW." + PetEntry.COLUMN_PET_SYNC_ID + ", NEW."
+                            + PetEntry.COLUMN_PET_SYNC_VERSION + "); END;";
+                    db.execSQL("CREATE TRIGGER pets_changes_insert AFTER INSERT ON "
+                            + PetEntry.TABLE_NAME + logChange);
+                    db.execSQL("CREATE TRIGGER pets_changes_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                            + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", "
+                            + PetEntry.COLUMN_PET_DELETED_AT + " ON " + PetEntry.TABLE_NAME
+                            + logChange);
+
+                    db.execSQL("CREATE TABLE " + SyncStateEntry.TABLE_NAME + " ("
+                            + SyncStateEntry.COLUMN_PULLED_VERSION
+                            + " INTEGER NOT NULL DEFAULT 0);");
+                    db.execSQL("INSERT INTO " + SyncStateEntry.TABLE_NAME + " DEFAULT VALUES;");
+                }
+            },
+
+            // Version 10: a dictionary of breeds, which pets refer to by id instead of each
+            // repeating the name. Every trigger, index and view reading the breed is rebuilt on
+            // the id, and the breed statistics are counted by id.
+            new Migration(10) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + BreedEntry.TABLE_NAME + " ("
+                            + BreedEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + BreedEntry.COLUMN_BREED_NAME + " TEXT NOT NULL UNIQUE"
+                            + " COLLATE NOCASE);");
+
+                    // Breeds that only differ in case keep the spelling of the oldest pet
+                    db.execSQL("INSERT OR IGNORE INTO " + BreedEntry.TABLE_NAME + " ("
+                            + BreedEntry.COLUMN_BREED_NAME + ") SELECT "
+                            + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME
+                            + " WHERE " + PetEntry.COLUMN_PET_BREED + " != '' ORDER BY "
+                            + PetEntry._ID + ";");
+
+                    // Nothing may see the breeds move over, or every pet would count as changed
+                    for (String trigger : new String[]{"pets_fts_insert", "pets_fts_update",
+                            "pets_stats_insert", "pets_stats_delete", "pets_stats_update_old",
+                            "pets_stats_update_new", "pets_changes_insert",
+                            "pets_changes_update"}) {
+                        db.execSQL("DROP TRIGGER " + trigger + ";");
+                    }
+                    db.execSQL("DROP VIEW " + ChangeEntry.VIEW_NAME + ";");
+                    db.execSQL("DROP INDEX pets_live_breed_name_index;");
+
+                    // The old column stays, since SQLite can't drop it, but is emptied
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                            + PetEntry.COLUMN_PET_BREED_ID + " INTEGER REFERENCES "
+                            + BreedEntry.TABLE_NAME + " (" + BreedEntry._ID + ");");
+                    db.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET "
+                            + PetEntry.COLUMN_PET_BREED_ID + " = (SELECT " + BreedEntry._ID
+                            + " FROM " + BreedEntry.TABLE_NAME + " WHERE "
+                            + BreedEntry.COLUMN_BREED_NAME + " = " + PetEntry.TABLE_NAME + "."
+                            + PetEntry.COLUMN_PET_BREED + "), " + PetEntry.COLUMN_PET_BREED
+                            + " = NULL WHERE " + PetEntry.COLUMN_PET_BREED + " IS NOT NULL;");
+
+                    String live = supportsPartialIndexes(db)
+                            ? " WHERE " + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL;"
+                            : ";";
+                    db.execSQL("CREATE INDEX pets_live_breed_id_name_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED_ID + ", "
+                            + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE, " + PetEntry._ID + ")"
+                            + live);
+
+                    db.execSQL("DROP TABLE " + StatsEntry.BREED_TABLE_NAME + ";");
+                    db.execSQL("CREATE TABLE " + StatsEntry.BREED_TABLE_NAME + " ("
+                            + StatsEntry.COLUMN_BREED_ID + " INTEGER PRIMARY KEY, "
+                            + StatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+                    db.execSQL("INSERT INTO " + StatsEntry.BREED_TABLE_NAME + " ("
+                            + StatsEntry.COLUMN_BREED_ID + ", " + StatsEntry.COLUMN_PET_COUNT
+                            + ") SELECT IFNULL(" + PetEntry.COLUMN_PET_BREED_ID + ", 0), COUNT(*)"
+                            + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                            + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL GROUP BY "
+                            + PetEntry.COLUMN_PET_BREED_ID + ";");
+
+                    db.execSQL("CREATE TRIGGER pets_fts_insert AFTER INSERT ON "
+                            + PetEntry.TABLE_NAME + " BEGIN"
+                            + " INSERT INTO " + PetEntry.FTS_TABLE_NAME + " (docid, "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " VALUES (NEW." + PetEntry._ID + ", NEW." + PetEntry.COLUMN_PET_NAME
+                            + ", " + breedName("NEW") + "); END;");
+                    db.execSQL("CREATE TRIGGER pets_fts_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED_ID
+                            + " ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + PetEntry.FTS_TABLE_NAME + " SET "
+                            + PetEntry.COLUMN_PET_NAME + " = NEW." + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " = " + breedName("NEW")
+                            + " WHERE docid = OLD." + PetEntry._ID + "; END;");
+
+                    db.execSQL("CREATE TRIGGER pets_stats_insert AFTER INSERT ON "
+                            + PetEntry.TABLE_NAME + " WHEN NEW." + PetEntry.COLUMN_PET_DELETED_AT
+                            + " IS NULL BEGIN " + countPet("NEW", 1) + " END;");
+                    db.execSQL("CREATE TRIGGER pets_stats_delete AFTER DELETE ON "
+                            + PetEntry.TABLE_NAME + " WHEN OLD." + PetEntry.COLUMN_PET_DELETED_AT
+                            + " IS NULL BEGIN " + countPet("OLD", -1) + " END;");
+                    String updateOf = " AFTER UPDATE OF " + PetEntry.COLUMN_PET_GENDER + ", "
+                            + PetEntry.COLUMN_PET_BREED_ID + ", " + PetEntry.COLUMN_PET_WEIGHT
+                            + ", " + PetEntry.COLUMN_PET_DELETED_AT + " ON " + PetEntry.TABLE_NAME;
+                    db.execSQL("CREATE TRIGGER pets_stats_update_old" + updateOf
+                            + " WHEN OLD." + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL BEGIN "
+                            + countPet("OLD", -1) + " END;");
+                    db.execSQL("CREATE TRIGGER pets_stats_update_new" + updateOf
+                            + " WHEN NEW." + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL BEGIN "
+                            + countPet("NEW", 1) + " END;");
+
+                    db.execSQL("CREATE VIEW " + ChangeEntry.VIEW_NAME + " AS SELECT c."
+                            + ChangeEntry._ID + " AS " + ChangeEntry._ID + ", c."
+                            + ChangeEntry.COLUMN_SYNC_ID + " AS " + ChangeEntry.COLUMN_SYNC_ID
+                            + ", c." + ChangeEntry.COLUMN_SYNC_VERSION + " AS "
+                            + ChangeEntry.COLUMN_SYNC_VERSION + ", p."
+                            + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME + ", "
+                            + breedName("p") + " AS " + PetEntry.COLUMN_PET_BREED
+                            + ", p." + PetEntry.COLUMN_PET_GENDER + " AS "
+                            + PetEntry.COLUMN_PET_GENDER + ", p." + PetEntry.COLUMN_PET_WEIGHT
+                            + " AS " + PetEntry.COLUMN_PET_WEIGHT + ", (p." + PetEntry._ID
+                            + " IS NULL OR p." + PetEntry.COLUMN_PET_DELETED_AT
+                            + " IS NOT NULL) AS " + ChangeEntry.COLUMN_DELETED
+                            + " FROM " + ChangeEntry.TABLE_NAME + " c LEFT JOIN "
+                            + PetEntry.TABLE_NAME + " p ON p." + PetEntry.COLUMN_PET_SYNC_ID
+                            + " = c." + ChangeEntry.COLUMN_SYNC_ID + " WHERE c." + ChangeEntry._ID
+                            + " = (SELECT MAX(" + ChangeEntry._ID + ") FROM "
+                            + ChangeEntry.TABLE_NAME + " WHERE " + ChangeEntry.COLUMN_SYNC_ID
+                            + " = c." + ChangeEntry.COLUMN_SYNC_ID + ");");
+
+                    String logChange = " BEGIN INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                            + ChangeEntry.COLUMN_SYNC_ID + ", " + ChangeEntry.COLUMN_SYNC_VERSION
+                            + ") VALUES (NEW." + PetEntry.COLUMN_PET_SYNC_ID + ", NEW."
+                            + PetEntry.COLUMN_PET_SYNC_VERSION + "); END;";
+                    db.execSQL("CREATE TRIGGER pets_changes_insert AFTER INSERT ON "
+                            + PetEntry.TABLE_NAME + logChange);
+                    db.execSQL("CREATE TRIGGER pets_changes_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED_ID
+                            + ", " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                            + ", " + PetEntry.COLUMN_PET_DELETED_AT + " ON " + PetEntry.TABLE_NAME
+                            + logChange);
+                }
+
+                /**
+                 * Returns the SQL reading the breed name of the given row (NEW, OLD or an alias
+                 * of the pets table) from the dictionary.
+                 */
+                private String breedName(String row) {
+                    return "(SELECT " + BreedEntry.COLUMN_BREED_NAME + " FROM "
+                            + BreedEntry.TABLE_NAME + " WHERE " + BreedEntry._ID + " = " + row
+                            + "." + PetEntry.COLUMN_PET_BREED_ID + ")";
+                }
+
+                /**
+                 * Returns the trigger statements that add the given row to the statistics, or
+                 * take it out of them, like the ones of version 8 but by breed id. Pets without
+                 * a breed are counted under id 0.
+                 */
+                private String countPet(String row, int change) {
+                    String gender = row + "." + PetEntry.COLUMN_PET_GENDER;
+                    String weight = row + "." + PetEntry.COLUMN_PET_WEIGHT;
+                    String breedId = "IFNULL(" + row + "." + PetEntry.COLUMN_PET_BREED_ID + ", 0)";
+                    String sign = change > 0 ? " + " : " - ";
+
+                    String sql = "UPDATE " + StatsEntry.GENDER_TABLE_NAME + " SET "
+                            + StatsEntry.COLUMN_PET_COUNT + " = " + StatsEntry.COLUMN_PET_COUNT
+                            + sign + "1, " + StatsEntry.COLUMN_TOTAL_WEIGHT + " = "
+                            + StatsEntry.COLUMN_TOTAL_WEIGHT + sign + weight + " WHERE "
+                            + StatsEntry.COLUMN_GENDER + " = " + gender + ";"
+                            + " UPDATE " + StatsEntry.BREED_TABLE_NAME + " SET "
+                            + StatsEntry.COLUMN_PET_COUNT + " = " + StatsEntry.COLUMN_PET_COUNT
+                            + sign + "1 WHERE " + StatsEntry.COLUMN_BREED_ID + " = " + breedId
+                            + ";";
+                    if (change > 0) {
+                        sql = "INSERT OR IGNORE INTO " + StatsEntry.GENDER_TABLE_NAME + " ("
+                                + StatsEntry.COLUMN_GENDER + ") VALUES (" + gender + ");"
+                                + " INSERT OR IGNORE INTO " + StatsEntry.BREED_TABLE_NAME + " ("
+                                + StatsEntry.COLUMN_BREED_ID + ") VALUES (" + breedId + "); "
+                                + sql;
+                    } else {
+                        sql += " DELETE FROM " + StatsEntry.BREED_TABLE_NAME + " WHERE "
+                                + StatsEntry.COLUMN_BREED_ID + " = " + breedId + " AND "
+                                + StatsEntry.COLUMN_PET_COUNT + " = 0;";
+                    }
+                    return sql;
+                }
+            },
+
+            // Version 11: only the default shelter is synced, so the other shelters stop
+            // logging their changes and drop the ones they have logged, which would otherwise
+            // pile up forever
+            new Migration(11) {
+                @Override
+                void migrate(SQLiteDatabase db, boolean defaultShelter) {
+                    if (defaultShelter) {
+                        return;
+                    }
+                    db.execSQL("DROP TRIGGER pets_changes_insert;");
+                    db.execSQL("DROP TRIGGER pets_changes_update;");
+                    db.execSQL("DELETE FROM " + ChangeEntry.TABLE_NAME + ";");
+                }
+            },
+
+            // Version 12: the index of the live names of version 6 does the job of the name
+            // index of version 2, which every insert, rename and delete still had to update.
+            // Without partial indexes the name index is the only one there is, and stays.
+            new Migration(12) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    if (supportsPartialIndexes(db)) {
+                        db.execSQL("DROP INDEX pets_name_index;");
+                    }
+                }
+            },
+    };
+
+    /**
+     * Told about deleted pets once the compaction has purged them.
+     */
+    public interface CompactionListener {
+
+        /**
+         * Called on the maintenance thread after a compaction purged some pets.
+         */
+        void onPetsPurged(int count);
+    }
+
+    private final int mPageSize;
+    private final int mCacheSizeKb;
+    private final int mSynchronous;
+
+    /**
+     * True for the database of the default shelter, the only one that logs its changes
+     */
+    private final boolean mDefaultShelter;
+
+    /**
+     * Background thread for database maintenance such as WAL checkpoints, shared by the helpers
+     * of every shelter
+     */
+    private static final ScheduledExecutorService sMaintenanceExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * True once the helper has been closed, after which scheduled maintenance is skipped rather
+     * than reopening the database
+     */
+    private volatile boolean mClosed;
+
+    /**
+     * True while a background checkpoint is waiting to run
+     */
+    private final AtomicBoolean mCheckpointScheduled = new AtomicBoolean();
+
+    /**
+     * True while a compaction is waiting to run
+     */
+    private final AtomicBoolean mCompactionScheduled = new AtomicBoolean();
+
+    private volatile CompactionListener mCompactionListener;
+
     public PetDbHelper(@Nullable Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_SIZE_KB, SYNCHRONOUS_NORMAL);
     }
 
+    /**
+     * Create a helper for the database of the given shelter. Every shelter has a file, and so a
+     * connection pool and locks, of its own.
+     */
+    public PetDbHelper(@Nullable Context context, long shelterId) {
+        this(context, getShelterDatabaseName(shelterId), DEFAULT_PAGE_SIZE,
+                DEFAULT_CACHE_SIZE_KB, SYNCHRONOUS_NORMAL);
+    }
+
+    /**
+     * Create a helper for the shelter database with the given tuning.
+     *
+     * @param pageSize    page size in bytes, a power of two between 512 and 65536. It only
+     *                    applies when the database file is first created.
+     * @param cacheSizeKb page cache size of the writer connection in KiB
+     * @param synchronous one of {@link #SYNCHRONOUS_OFF}, {@link #SYNCHRONOUS_NORMAL} or
+     *                    {@link #SYNCHRONOUS_FULL}
+     */
+    public PetDbHelper(@Nullable Context context, int pageSize, int cacheSizeKb, int synchronous) {
+        this(context, DATABASE_NAME, pageSize, cacheSizeKb, synchronous);
+    }
+
+    private PetDbHelper(@Nullable Context context, String name, int pageSize, int cacheSizeKb,
+                        int synchronous) {
+        super(context, name, null, DATABASE_VERSION);
+
+        mPageSize = pageSize;
+        mCacheSizeKb = cacheSizeKb;
+        mSynchronous = synchronous;
+        mDefaultShelter = DATABASE_NAME.equals(name);
+    }
+
+    /**
+     * Returns the name of the database file of the given shelter.
+     */
+    public static String getShelterDatabaseName(long shelterId) {
+        if (shelterId == ShelterEntry.DEFAULT_SHELTER_ID) {
+            return DATABASE_NAME;
+        }
+        return SHELTER_DATABASE_PREFIX + shelterId + SHELTER_DATABASE_SUFFIX;
+    }
+
+    /**
+     * Returns the ids of the shelters that have a database file, the default shelter included.
+     */
+    public static List<Long> getShelterIds(Context context) {
+        List<Long> shelterIds = new ArrayList<>();
+        shelterIds.add(ShelterEntry.DEFAULT_SHELTER_ID);
+        for (String name : context.databaseList()) {
+            if (!name.startsWith(SHELTER_DATABASE_PREFIX)
+                    || !name.endsWith(SHELTER_DATABASE_SUFFIX)) {
+                continue;
+            }
+            String id = name.substring(SHELTER_DATABASE_PREFIX.length(),
+                    name.length() - SHELTER_DATABASE_SUFFIX.length());
+            try {
+                shelterIds.add(Long.parseLong(id));
+            } catch (NumberFormatException e) {
+                // Some other file that happens to look like a shelter database
+            }
+        }
+        return shelterIds;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (db.isReadOnly()) {
+            return;
+        }
+        // Called before onCreate, while a new file is still empty and not yet in WAL mode, the
+        // only time its page size and auto vacuum can change
+        if (db.getVersion() == 0) {
+            applyFilePragmas(db);
+        }
+        applyPragmas(db);
+
+        // Write-ahead logging lets the catalog's reads run while the editor writes, and gives
+        // the database a pool of reader connections
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // onConfigure only exists from Jelly Bean. The file has been created by now, so older
+        // platforms keep SQLite's page size, and vacuum() switches on incremental vacuum.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            applyPragmas(db);
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        super.close();
+    }
+
+    /**
+     * Apply the page size and incremental auto vacuum to a new database file. Both are stored
+     * in the file, whose header the platform has already written when it created
+     * android_metadata, so they only take effect once the file is rebuilt by a VACUUM. The file
+     * is empty, so that costs next to nothing.
+     */
+    private void applyFilePragmas(SQLiteDatabase db) {
+        pragma(db, "page_size = " + mPageSize);
+        pragma(db, "auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+        db.execSQL("VACUUM");
+    }
+
+    /**
+     * Apply the cache size, synchronous level and WAL auto checkpoint interval. These are per
+     * connection settings, and only the primary connection, which does all the writing, is
+     * configured here.
+     */
+    private void applyPragmas(SQLiteDatabase db) {
+        // A negative cache size is a size in KiB rather than a number of pages
+        pragma(db, "cache_size = -" + mCacheSizeKb);
+        pragma(db, "synchronous = " + mSynchronous);
+        pragma(db, "wal_autocheckpoint = " + WAL_AUTO_CHECKPOINT_PAGES);
+    }
+
+    /**
+     * Run a PRAGMA statement. Some PRAGMAs return a row, which execSQL refuses, so they all go
+     * through rawQuery.
+     */
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Run a query that returns a single number, such as a PRAGMA reading a setting. Returns 0
+     * if it returned no row.
+     */
+    private static long queryLong(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns true if the SQLite library of the platform supports partial indexes (3.8.0 and up).
+     */
+    static boolean supportsPartialIndexes(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT sqlite_version()", null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            String[] parts = cursor.getString(0).split("\\.");
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return major > 3 || (major == 3 && minor >= 8);
+        } catch (NumberFormatException e) {
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Schedule a passive WAL checkpoint on the maintenance thread, shortly after the latest
+     * write. Calls made while a checkpoint is already waiting are folded into it, so this is
+     * cheap enough to call after every write.
+     */
+    public void scheduleCheckpoint() {
+        if (!mCheckpointScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        sMaintenanceExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mCheckpointScheduled.set(false);
+                if (mClosed) {
+                    return;
+                }
+                try {
+                    // PASSIVE copies what it can without waiting for readers or blocking them
+                    pragma(getWritableDatabase(), "wal_checkpoint(PASSIVE)");
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to checkpoint the write-ahead log", e);
+                }
+            }
+        }, CHECKPOINT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set the listener told about the pets purged by the compaction, or null for none.
+     */
+    public void setCompactionListener(@Nullable CompactionListener listener) {
+        mCompactionListener = listener;
+    }
+
+    /**
+     * Schedule a compaction on the maintenance thread soon after startup, to purge the pets
+     * deleted before the app last stopped.
+     */
+    public void scheduleStartupCompaction() {
+        scheduleCompaction(COMPACTION_STARTUP_DELAY_MILLIS);
+    }
+
+    /**
+     * Schedule a compaction for when the pets deleted now are due to be purged. Calls made
+     * while a compaction is already waiting are folded into it, and each compaction schedules
+     * the next one if deleted pets are left, so this is cheap enough to call after every delete.
+     */
+    public void scheduleCompaction() {
+        scheduleCompaction(PetEntry.TOMBSTONE_RETENTION_MILLIS);
+    }
+
+    private void scheduleCompaction(long delayMillis) {
+        if (!mCompactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        sMaintenanceExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mCompactionScheduled.set(false);
+                if (mClosed) {
+                    return;
+                }
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to compact the database", e);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Purge the deleted pets that are past their retention, a batch per transaction so writers
+     * can get in between, then give the pages they used back to the file system. The full-text
+     * delete trigger cleans up the index as the pets go.
+     */
+    private void compact() {
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+        String[] purgeArgs = {String.valueOf(now - PetEntry.TOMBSTONE_RETENTION_MILLIS)};
+
+        int purged = 0;
+        int batch;
+        do {
+            db.beginTransaction();
+            try {
+                batch = db.delete(PetEntry.TABLE_NAME,
+                        PetEntry._ID + " IN (" + SQL_SELECT_PURGEABLE + ")", purgeArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            purged += batch;
+        } while (batch == COMPACTION_BATCH_SIZE);
+
+        if (purged > 0) {
+            Log.i(LOG_TAG, "Purged " + purged + " deleted pets");
+            vacuum(db);
+            CompactionListener listener = mCompactionListener;
+            if (listener != null) {
+                listener.onPetsPurged(purged);
+            }
+        }
+
+        // Pets deleted since are purged by the next compaction, once they are due
+        long oldestDeletedAt = queryLong(db, "SELECT MIN(" + PetEntry.COLUMN_PET_DELETED_AT
+                + ") FROM " + PetEntry.TABLE_NAME + " WHERE "
+                + PetEntry.COLUMN_PET_DELETED_AT + " IS NOT NULL", null);
+        if (oldestDeletedAt != 0) {
+            scheduleCompaction(Math.max(COMPACTION_STARTUP_DELAY_MILLIS,
+                    oldestDeletedAt + PetEntry.TOMBSTONE_RETENTION_MILLIS - now));
+        }
+    }
+
+    /**
+     * Give the free pages of the file back to the file system. Databases created before
+     * incremental vacuum was turned on are switched over with one full VACUUM, which rewrites
+     * the whole file; from then on freeing pages only touches the free ones.
+     */
+    private static void vacuum(SQLiteDatabase db) {
+        if (queryLong(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            Log.i(LOG_TAG, "Switching the database to incremental vacuum");
+            pragma(db, "auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            db.execSQL("VACUUM");
+        } else if (queryLong(db, "PRAGMA freelist_count", null) > 0) {
+            pragma(db, "incremental_vacuum");
+        }
+    }
+
+    /**
+     * Compare the statistics kept by the triggers with ones recomputed from every pet, and
+     * return the number of rows that differ.
+     */
+    public int checkStats() {
+        return (int) queryLong(getReadableDatabase(), SQL_COUNT_STATS_MISMATCHES, null);
+    }
+
+    /**
+     * Replace the statistics kept by the triggers with ones recomputed from every pet, in a
+     * single transaction so readers never see them half done.
+     */
+    public void rebuildStats() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(StatsEntry.GENDER_TABLE_NAME, null, null);
+            db.delete(StatsEntry.BREED_TABLE_NAME, null, null);
+            db.execSQL("INSERT INTO " + StatsEntry.GENDER_TABLE_NAME + " ("
+                    + StatsEntry.COLUMN_GENDER + ", " + StatsEntry.COLUMN_PET_COUNT + ", "
+                    + StatsEntry.COLUMN_TOTAL_WEIGHT + ") " + SQL_COMPUTE_GENDER_STATS);
+            db.execSQL("INSERT INTO " + StatsEntry.BREED_TABLE_NAME + " ("
+                    + StatsEntry.COLUMN_BREED_ID + ", " + StatsEntry.COLUMN_PET_COUNT + ") "
+                    + SQL_COMPUTE_BREED_STATS);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the SQL counting the rows of the first query that aren't in the second.
+     */
+    private static String countExcept(String query, String except) {
+        return "(SELECT COUNT(*) FROM (" + query + " EXCEPT " + except + "))";
+    }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
@@ -41,11 +1015,69 @@ public class PetDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PETS_TABLE);
+
+        // Bring the base schema up to the current version
+        migrate(db, BASE_VERSION, DATABASE_VERSION, mDefaultShelter);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        migrate(db, oldVersion, newVersion, mDefaultShelter);
+    }
+
+    /**
+     * Run, in order, every migration needed to bring the database from oldVersion to newVersion.
+     * Each migration runs in its own transaction, nested in the one SQLiteOpenHelper holds
+     * around onCreate and onUpgrade, so a failing step leaves the database at the old version.
+     * Package-private so the tests can step through the history one version at a time.
+     *
+     * @param defaultShelter whether the database is the default shelter's or another one's
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion,
+                        boolean defaultShelter) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion <= oldVersion || migration.toVersion > newVersion) {
+                continue;
+            }
+
+            Log.i(LOG_TAG, "Migrating database to version " + migration.toVersion);
+
+            db.beginTransaction();
+            try {
+                migration.migrate(db, defaultShelter);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * A single step of the schema history.
+     */
+    private abstract static class Migration {
+
+        /**
+         * The version of the database once this migration has been applied
+         */
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
 
+        /**
+         * Apply the schema changes for this version.
+         */
+        void migrate(SQLiteDatabase db) {
+        }
 
+        /**
+         * Apply the schema changes for this version to the database of the default shelter or
+         * of another one. Only migrations that differ between them override this.
+         */
+        void migrate(SQLiteDatabase db, boolean defaultShelter) {
+            migrate(db);
+        }
     }
 }
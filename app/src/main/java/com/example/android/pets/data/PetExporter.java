@@ -0,0 +1,315 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link PetExporter} writes every pet, as CSV or JSON, to an output stream.
+ * <p>
+ * The pets are read with the keyset paged queries of {@link PetProvider} and each row is
+ * written out as soon as it has been read, so memory use is bounded by one page, however many
+ * pets there are. The output can be gzipped on the way, progress is reported after every page,
+ * and an export can be cancelled from any thread.
+ * <p>
+ * An exporter does one export at a time; it can be reused once an export has finished.
+ */
+public class PetExporter {
+
+    /**
+     * Receives the progress of an export.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called on the exporting thread after each page of pets has been written.
+         *
+         * @param exported number of pets written so far
+         * @param total    number of pets there were when the export started. Pets added during
+         *                 the export can make the final count go over it.
+         */
+        void onProgress(long exported, long total);
+    }
+
+    /**
+     * Number of pets read per query
+     */
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * Size of the buffer between the formatter and the output, in chars
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ContentResolver mContentResolver;
+
+    private volatile boolean mCancelled;
+
+    public PetExporter(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Stop the running export. It throws an {@link InterruptedIOException} at the next row.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Write every pet to the given stream, which is flushed but not closed.
+     *
+     * @param format   {@link PetEntry#EXPORT_FORMAT_CSV} or {@link PetEntry#EXPORT_FORMAT_JSON}
+     * @param gzip     true to compress the output with gzip
+     * @param listener receives the progress, may be null
+     * @return the number of pets written
+     * @throws InterruptedIOException if the export was cancelled
+     */
+    public long export(OutputStream out, String format, boolean gzip, ProgressListener listener)
+            throws IOException {
+
+        RowWriter rowWriter;
+        if (PetEntry.EXPORT_FORMAT_CSV.equals(format)) {
+            rowWriter = new CsvWriter();
+        } else if (PetEntry.EXPORT_FORMAT_JSON.equals(format)) {
+            rowWriter = new JsonWriter();
+        } else {
+            throw new IllegalArgumentException("Unknown export format " + format);
+        }
+
+        mCancelled = false;
+        long total = countPets();
+
+        GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(gzipOut != null ? gzipOut : out, UTF_8), BUFFER_SIZE);
+
+        long exported = 0;
+        String lastName = null;
+        long lastId = 0;
+
+        rowWriter.writeStart(writer);
+        while (true) {
+            Cursor page = mContentResolver.query(
+                    exported == 0
+                            ? PetEntry.buildPageUri(PAGE_SIZE)
+                            : PetEntry.buildPageUri(PAGE_SIZE, lastName, lastId),
+                    PetEntry.EXPORT_COLUMNS, null, null, null);
+            if (page == null) {
+                throw new IOException("Pets can't be queried");
+            }
+
+            int count;
+            try {
+                count = page.getCount();
+                while (page.moveToNext()) {
+                    if (mCancelled) {
+                        throw new InterruptedIOException("Export cancelled");
+                    }
+                    rowWriter.writeRow(writer, page, exported);
+                    exported++;
+                }
+
+                if (page.moveToLast()) {
+                    lastName = page.getString(page.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME));
+                    lastId = page.getLong(page.getColumnIndexOrThrow(PetEntry._ID));
+                }
+            } finally {
+                page.close();
+            }
+
+            if (listener != null) {
+                listener.onProgress(exported, total);
+            }
+            if (count < PAGE_SIZE) {
+                break;
+            }
+        }
+        rowWriter.writeEnd(writer);
+
+        writer.flush();
+        if (gzipOut != null) {
+            // Write the gzip trailer without closing the caller's stream
+            gzipOut.finish();
+        }
+        out.flush();
+
+        return exported;
+    }
+
+    /**
+     * Returns the number of pets, from a COUNT(*) query.
+     */
+    private long countPets() {
+        Cursor cursor = mContentResolver.query(PetEntry.CONTENT_URI,
+                new String[]{PetEntry._COUNT}, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Writes the rows of one format.
+     */
+    private interface RowWriter {
+        void writeStart(Writer writer) throws IOException;
+
+        void writeRow(Writer writer, Cursor cursor, long index) throws IOException;
+
+        void writeEnd(Writer writer) throws IOException;
+    }
+
+    /**
+     * CSV as in RFC 4180: a header row, CRLF line ends, and fields quoted when they contain a
+     * comma, a quote or a line break. Null values are written as empty fields.
+     */
+    private static class CsvWriter implements RowWriter {
+
+        @Override
+        public void writeStart(Writer writer) throws IOException {
+            for (int i = 0; i < PetEntry.EXPORT_COLUMNS.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(PetEntry.EXPORT_COLUMNS[i]);
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void writeRow(Writer writer, Cursor cursor, long index) throws IOException {
+            int columnCount = cursor.getColumnCount();
+            for (int i = 0; i < columnCount; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                String value = cursor.getString(i);
+                if (value != null) {
+                    writeField(writer, value);
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void writeEnd(Writer writer) {
+        }
+
+        private static void writeField(Writer writer, String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quote) {
+                writer.write(value);
+                return;
+            }
+
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    writer.write('"');
+                }
+                writer.write(c);
+            }
+            writer.write('"');
+        }
+    }
+
+    /**
+     * A JSON array with one object per pet, one object per line. Numbers stay numbers and
+     * nulls stay nulls.
+     */
+    private static class JsonWriter implements RowWriter {
+
+        @Override
+        public void writeStart(Writer writer) throws IOException {
+            writer.write('[');
+        }
+
+        @Override
+        public void writeRow(Writer writer, Cursor cursor, long index) throws IOException {
+            if (index > 0) {
+                writer.write(',');
+            }
+            writer.write("\n{");
+            int columnCount = cursor.getColumnCount();
+            for (int i = 0; i < columnCount; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeString(writer, cursor.getColumnName(i));
+                writer.write(':');
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        writer.write("null");
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        writer.write(cursor.getString(i));
+                        break;
+                    default:
+                        writeString(writer, cursor.getString(i));
+                        break;
+                }
+            }
+            writer.write('}');
+        }
+
+        @Override
+        public void writeEnd(Writer writer) throws IOException {
+            writer.write("\n]\n");
+        }
+
+        private static void writeString(Writer writer, String value) throws IOException {
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        writer.write("\\\"");
+                        break;
+                    case '\\':
+                        writer.write("\\\\");
+                        break;
+                    case '\n':
+                        writer.write("\\n");
+                        break;
+                    case '\r':
+                        writer.write("\\r");
+                        break;
+                    case '\t':
+                        writer.write("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            writer.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            writer.write(c);
+                        }
+                        break;
+                }
+            }
+            writer.write('"');
+        }
+    }
+}
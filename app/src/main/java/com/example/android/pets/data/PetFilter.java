@@ -0,0 +1,182 @@
+package com.example.android.pets.data;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * {@link PetFilter} is an immutable description of which pets to show and in what order: the
+ * filter and sort query parameters of {@link PetEntry#CONTENT_URI}.
+ */
+public final class PetFilter {
+
+    /**
+     * Value of the gender and weight limits that lets every pet through
+     */
+    public static final int ANY = -1;
+
+    /**
+     * Every pet, sorted by name
+     */
+    public static final PetFilter ALL =
+            new PetFilter(ANY, ANY, ANY, null, PetEntry.SORT_NAME, false);
+
+    private final int mGender;
+    private final int mMinWeight;
+    private final int mMaxWeight;
+    private final String mBreed;
+    private final String mSort;
+    private final boolean mDescending;
+
+    /**
+     * Create a filter, throwing an {@link IllegalArgumentException} if one of the values is
+     * invalid.
+     *
+     * @param gender     one of the GENDER_* values of {@link PetEntry}, or {@link #ANY}
+     * @param minWeight  lowest weight let through, or {@link #ANY}
+     * @param maxWeight  highest weight let through, or {@link #ANY}
+     * @param breed      breed to let through, ignoring case, or null or empty for any
+     * @param sort       {@link PetEntry#SORT_NAME} or {@link PetEntry#SORT_WEIGHT}
+     * @param descending true to sort from the highest sort key down
+     */
+    public PetFilter(int gender, int minWeight, int maxWeight, String breed, String sort,
+                     boolean descending) {
+        if (gender != ANY && !PetEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("Invalid gender " + gender);
+        }
+        if (minWeight < ANY || maxWeight < ANY) {
+            throw new IllegalArgumentException("Invalid weight limit");
+        }
+        if (!PetEntry.SORT_NAME.equals(sort) && !PetEntry.SORT_WEIGHT.equals(sort)) {
+            throw new IllegalArgumentException("Invalid sort key " + sort);
+        }
+
+        mGender = gender;
+        mMinWeight = minWeight;
+        mMaxWeight = maxWeight;
+        mBreed = TextUtils.isEmpty(breed) ? null : breed;
+        mSort = sort;
+        mDescending = descending;
+    }
+
+    /**
+     * Read the filter of the given URI, throwing an {@link IllegalArgumentException} if one of
+     * its parameters is invalid. Parameters that are missing let every pet through.
+     */
+    public static PetFilter fromUri(Uri uri) {
+        String sort = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        return new PetFilter(
+                getIntParameter(uri, PetEntry.QUERY_PARAMETER_GENDER),
+                getIntParameter(uri, PetEntry.QUERY_PARAMETER_MIN_WEIGHT),
+                getIntParameter(uri, PetEntry.QUERY_PARAMETER_MAX_WEIGHT),
+                uri.getQueryParameter(PetEntry.QUERY_PARAMETER_BREED),
+                sort == null ? PetEntry.SORT_NAME : sort,
+                Boolean.parseBoolean(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_DESCENDING)));
+    }
+
+    private static int getIntParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return ANY;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " " + uri);
+        }
+    }
+
+    /**
+     * Add the query parameters of this filter to the given builder. Parameters that let every
+     * pet through, and the default order, are left out.
+     */
+    public Uri.Builder appendTo(Uri.Builder builder) {
+        if (mGender != ANY) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_GENDER, String.valueOf(mGender));
+        }
+        if (mMinWeight != ANY) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_MIN_WEIGHT,
+                    String.valueOf(mMinWeight));
+        }
+        if (mMaxWeight != ANY) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_MAX_WEIGHT,
+                    String.valueOf(mMaxWeight));
+        }
+        if (mBreed != null) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_BREED, mBreed);
+        }
+        if (!mSort.equals(PetEntry.SORT_NAME)) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_SORT, mSort);
+        }
+        if (mDescending) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_DESCENDING, "true");
+        }
+        return builder;
+    }
+
+    public int getGender() {
+        return mGender;
+    }
+
+    public int getMinWeight() {
+        return mMinWeight;
+    }
+
+    public int getMaxWeight() {
+        return mMaxWeight;
+    }
+
+    /**
+     * The breed to let through, or null for any
+     */
+    public String getBreed() {
+        return mBreed;
+    }
+
+    /**
+     * The sort key, which is also the column the pets are sorted by
+     */
+    public String getSort() {
+        return mSort;
+    }
+
+    public boolean isDescending() {
+        return mDescending;
+    }
+
+    /**
+     * Returns the same filter with the pets in the opposite order, to page backwards.
+     */
+    public PetFilter reverse() {
+        return new PetFilter(mGender, mMinWeight, mMaxWeight, mBreed, mSort, !mDescending);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PetFilter)) {
+            return false;
+        }
+        PetFilter other = (PetFilter) o;
+        return mGender == other.mGender
+                && mMinWeight == other.mMinWeight
+                && mMaxWeight == other.mMaxWeight
+                && TextUtils.equals(mBreed, other.mBreed)
+                && mSort.equals(other.mSort)
+                && mDescending == other.mDescending;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mGender;
+        hash = 31 * hash + mMinWeight;
+        hash = 31 * hash + mMaxWeight;
+        hash = 31 * hash + (mBreed == null ? 0 : mBreed.hashCode());
+        hash = 31 * hash + mSort.hashCode();
+        hash = 31 * hash + (mDescending ? 1 : 0);
+        return hash;
+    }
+}
@@ -0,0 +1,885 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link PetPager} loads the pets catalog one page at a time, in the background, using the
+ * keyset paged queries of {@link PetProvider}.
+ * <p>
+ * The first page is loaded when the pager is started. When the visible pets get within half a
+ * page of either end of what is loaded, the page after the last pet or before the first one is
+ * fetched, and the pages furthest from the visible pets are dropped once more than
+ * {@link #MAX_LOADED_PAGES} are loaded. Memory stays the same however far the list is scrolled.
+ * Since dropping pages at the start shifts the positions of the others, the pager is told
+ * which pets are visible by id rather than by position.
+ * <p>
+ * The loaded pages are handed to the {@link Callback} as {@link Rows}: a single cursor over all
+ * of them, plus the id and a copy of the contents of every row, read on the background thread
+ * when the page arrived. Those let an adapter work out what changed between two deliveries
+ * without touching the cursors.
+ * <p>
+ * When the pets change, only the pages holding the visible pets are queried again, from the key
+ * of the first of them, and the pages around them are loaded again as the list needs them.
+ * <p>
+ * The pets can be filtered and sorted with a {@link PetFilter}. The pager can also show the
+ * results of a search instead of the whole catalog. Search results are ranked rather than
+ * sorted by key, and not filtered, so they come as a single page of the best matches.
+ * <p>
+ * All methods must be called from the main thread.
+ */
+public class PetPager {
+
+    /**
+     * Receives the pets every time a page has been loaded or the pets have been reloaded.
+     */
+    public interface Callback {
+
+        /**
+         * Called with every pet loaded so far. The rows stay valid until they are released with
+         * {@link Rows#release()}, or until the pager is stopped; don't close their cursor.
+         */
+        void onPetsLoaded(Rows pets);
+    }
+
+    private static final String LOG_TAG = PetPager.class.getSimpleName();
+
+    /**
+     * Number of pages kept loaded. Beyond that the pages furthest from the visible pets are
+     * dropped, to be loaded again by key if the list is scrolled back to them.
+     */
+    private static final int MAX_LOADED_PAGES = 5;
+
+    /**
+     * Tokens for the three kinds of query
+     */
+    private static final int TOKEN_RELOAD = 1;
+    private static final int TOKEN_NEXT_PAGE = 2;
+    private static final int TOKEN_PREVIOUS_PAGE = 3;
+
+    /**
+     * Id of no pet, for when no pets are visible
+     */
+    private static final long NO_ID = -1;
+
+    private final int mPageSize;
+    private final String[] mProjection;
+    private final Callback mCallback;
+    private final ContentResolver mContentResolver;
+
+    /**
+     * Runs the queries, one at a time, for every pager
+     */
+    private static final Executor sQueryExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Hands the query results back to the main thread
+     */
+    private final Handler mHandler = new Handler();
+
+    /**
+     * The pages loaded, in order. They hold the visible pets and the pets around them.
+     */
+    private final List<Page> mPages = new ArrayList<>();
+
+    /**
+     * Rows handed to the callback that haven't been released yet. A page is only closed once
+     * it is neither loaded nor part of any of these.
+     */
+    private final List<Rows> mLiveRows = new ArrayList<>();
+
+    /**
+     * Number of pets in {@link #mPages}
+     */
+    private int mLoadedCount;
+
+    /**
+     * False when there are no pets before the first loaded one, or after the last loaded one
+     */
+    private boolean mHasMoreBefore;
+    private boolean mHasMoreAfter;
+
+    /**
+     * Ids of the first and last visible pets, or {@link #NO_ID}
+     */
+    private long mFirstVisibleId = NO_ID;
+    private long mLastVisibleId = NO_ID;
+
+    /**
+     * True while a query is running
+     */
+    private boolean mLoading;
+
+    /**
+     * Number of pets asked for by the running reload
+     */
+    private int mReloadCount;
+
+    /**
+     * True if the running reload starts at a visible pet rather than at the top
+     */
+    private boolean mReloadFromKey;
+
+    /**
+     * Text the pets are being searched for, or null to page through the whole catalog
+     */
+    private String mSearchQuery;
+
+    /**
+     * Which pets of the catalog to page through, and in what order
+     */
+    private PetFilter mFilter = PetFilter.ALL;
+
+    /**
+     * Incremented whenever the pages are thrown away, so that queries started before that
+     * can recognise their results as stale
+     */
+    private int mGeneration;
+
+    /**
+     * Reloads the visible pages when the pets change
+     */
+    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            reloadVisiblePages();
+        }
+    };
+
+    /**
+     * Create a new {@link PetPager}.
+     *
+     * @param contentResolver used to query {@link PetProvider}
+     * @param pageSize        number of pets in each page
+     * @param projection      the columns to load for each pet. It must include _id; the column
+     *                        of the filter's sort key is added if it's missing, since it
+     *                        makes up the key of the next page along with _id.
+     * @param callback        receives the loaded pets
+     */
+    public PetPager(ContentResolver contentResolver, int pageSize, String[] projection,
+                    Callback callback) {
+        mContentResolver = contentResolver;
+        mPageSize = pageSize;
+        mProjection = projection;
+        mCallback = callback;
+    }
+
+    /**
+     * Load the first page and start watching the pets for changes.
+     */
+    public void start() {
+        mContentResolver.registerContentObserver(PetEntry.CONTENT_URI, true, mObserver);
+        reload(mPageSize, null, 0);
+    }
+
+    /**
+     * Show the pets matching the given text instead of the whole catalog, or go back to the
+     * whole catalog if the text is empty. The current pets stay visible until the new ones
+     * have been loaded.
+     */
+    public void setSearchQuery(String query) {
+        if (TextUtils.isEmpty(query)) {
+            query = null;
+        }
+        if (TextUtils.equals(query, mSearchQuery)) {
+            return;
+        }
+
+        mSearchQuery = query;
+        reload(mPageSize, null, 0);
+    }
+
+    /**
+     * Show the pets the filter lets through, in its order. The current pets stay visible until
+     * the new ones have been loaded.
+     */
+    public void setFilter(PetFilter filter) {
+        if (filter.equals(mFilter)) {
+            return;
+        }
+
+        mFilter = filter;
+        reload(mPageSize, null, 0);
+    }
+
+    /**
+     * Stop watching the pets, drop the result of any running query and close the pages. Rows
+     * handed to the callback are invalid after this, so detach them from any adapter first.
+     */
+    public void stop() {
+        mContentResolver.unregisterContentObserver(mObserver);
+        mGeneration++;
+        mLoading = false;
+
+        for (Page page : mPages) {
+            page.cursor.close();
+        }
+        for (Rows rows : mLiveRows) {
+            for (Page page : rows.mPages) {
+                page.cursor.close();
+            }
+        }
+        mPages.clear();
+        mLiveRows.clear();
+        mLoadedCount = 0;
+    }
+
+    /**
+     * Tell the pager which pets the list shows, by id. When they are within half a page of
+     * either end of the loaded pets, the page past that end is fetched.
+     */
+    public void onScrolled(long firstVisibleId, long lastVisibleId) {
+        mFirstVisibleId = firstVisibleId;
+        mLastVisibleId = lastVisibleId;
+        loadMoreIfNeeded();
+    }
+
+    /**
+     * Fetch the next or previous page if the visible pets are close to the end of the loaded
+     * ones, and there is more to load there.
+     */
+    private void loadMoreIfNeeded() {
+        if (mLoading || mPages.isEmpty()) {
+            return;
+        }
+
+        int lastVisiblePosition = findPosition(mLastVisibleId);
+        if (mHasMoreAfter && lastVisiblePosition != -1
+                && lastVisiblePosition >= mLoadedCount - mPageSize / 2) {
+            loadNextPage();
+            return;
+        }
+        int firstVisiblePosition = findPosition(mFirstVisibleId);
+        if (mHasMoreBefore && firstVisiblePosition != -1
+                && firstVisiblePosition < mPageSize / 2) {
+            loadPreviousPage();
+        }
+    }
+
+    /**
+     * Query again the pages holding the visible pets, starting from the first of them, and
+     * drop the others. Without visible pets, or while searching, start over from the top.
+     */
+    private void reloadVisiblePages() {
+        int firstPage = findPage(mFirstVisibleId);
+        int lastPage = findPage(mLastVisibleId);
+        if (mSearchQuery != null || firstPage == -1 || lastPage < firstPage) {
+            reload(mPageSize, null, 0);
+            return;
+        }
+
+        int count = 0;
+        for (int i = firstPage; i <= lastPage; i++) {
+            count += mPages.get(i).ids.length;
+        }
+        count = Math.max(count, mPageSize);
+
+        if (firstPage == 0 && !mHasMoreBefore) {
+            // Pets added at the top belong in the list too
+            reload(count, null, 0);
+        } else {
+            Page page = mPages.get(firstPage);
+            reload(count, page.firstKey, page.firstId);
+        }
+    }
+
+    /**
+     * Replace all loaded pages with a single query for the given number of pets, starting with
+     * the pet of the given sort key and id, or from the top if the key is null.
+     */
+    private void reload(int count, String fromKey, long fromId) {
+        mGeneration++;
+        mLoading = true;
+        mReloadCount = count;
+        mReloadFromKey = fromKey != null;
+
+        Uri uri;
+        if (mSearchQuery != null) {
+            uri = PetEntry.buildSearchUri(mSearchQuery, count);
+        } else if (fromKey == null) {
+            uri = PetEntry.buildPageUri(count, mFilter);
+        } else {
+            // Pages start after their key. Ids are whole numbers, so starting after the id next
+            // to the pet's, on the side it is sorted from, takes in the pet itself.
+            long afterId = mFilter.isDescending() ? fromId + 1 : fromId - 1;
+            uri = PetEntry.buildPageUri(count, mFilter, fromKey, afterId);
+        }
+        startQuery(TOKEN_RELOAD, uri, false);
+    }
+
+    /**
+     * Fetch the page that follows the last loaded pet.
+     */
+    private void loadNextPage() {
+        mLoading = true;
+        Page lastPage = mPages.get(mPages.size() - 1);
+        Uri uri = PetEntry.buildPageUri(mPageSize, mFilter, lastPage.lastKey, lastPage.lastId);
+        startQuery(TOKEN_NEXT_PAGE, uri, false);
+    }
+
+    /**
+     * Fetch the page that comes before the first loaded pet, by paging from it in the opposite
+     * order.
+     */
+    private void loadPreviousPage() {
+        mLoading = true;
+        Page firstPage = mPages.get(0);
+        Uri uri = PetEntry.buildPageUri(mPageSize, mFilter.reverse(), firstPage.firstKey,
+                firstPage.firstId);
+        startQuery(TOKEN_PREVIOUS_PAGE, uri, true);
+    }
+
+    /**
+     * Run the query on the background thread, read the page there and hand it back to
+     * {@link #onQueryComplete} on the main thread.
+     *
+     * @param reversed true if the query returns the pets in the opposite order to the list's
+     */
+    private void startQuery(final int token, final Uri uri, final boolean reversed) {
+        final int generation = mGeneration;
+        final String keyColumn = mFilter.getSort();
+        final String[] projection = getProjection(keyColumn);
+        sQueryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Page page = null;
+                try {
+                    Cursor cursor = mContentResolver.query(uri, projection, null, null, null);
+                    if (cursor != null) {
+                        if (reversed) {
+                            cursor = new ReversedCursor(cursor);
+                        }
+                        page = new Page(cursor, keyColumn);
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(LOG_TAG, "Failed to load " + uri, e);
+                }
+
+                final Page result = page;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onQueryComplete(token, generation, result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the projection of the pager with the given key column added, if it isn't in it.
+     */
+    private String[] getProjection(String keyColumn) {
+        if (Arrays.asList(mProjection).contains(keyColumn)) {
+            return mProjection;
+        }
+        String[] projection = Arrays.copyOf(mProjection, mProjection.length + 1);
+        projection[mProjection.length] = keyColumn;
+        return projection;
+    }
+
+    /**
+     * Handle the result of one of the queries.
+     */
+    private void onQueryComplete(int token, int generation, Page page) {
+        if (generation != mGeneration) {
+            // The pages were thrown away while this query was running
+            if (page != null) {
+                page.cursor.close();
+            }
+            return;
+        }
+
+        mLoading = false;
+        if (page == null) {
+            return;
+        }
+
+        List<Page> droppedPages = new ArrayList<>();
+        if (token == TOKEN_RELOAD) {
+            if (page.ids.length == 0 && mReloadFromKey) {
+                // Every pet from the visible ones on is gone, so start over from the top
+                page.cursor.close();
+                reload(mPageSize, null, 0);
+                return;
+            }
+            droppedPages.addAll(mPages);
+            mPages.clear();
+            mPages.add(page);
+            mHasMoreBefore = mReloadFromKey;
+            // Search results are only ever one page
+            mHasMoreAfter = mSearchQuery == null && page.ids.length >= mReloadCount;
+        } else if (page.ids.length == 0) {
+            // Nothing more that way; the loaded pets haven't changed
+            page.cursor.close();
+            if (token == TOKEN_NEXT_PAGE) {
+                mHasMoreAfter = false;
+            } else {
+                mHasMoreBefore = false;
+            }
+            return;
+        } else if (token == TOKEN_NEXT_PAGE) {
+            mHasMoreAfter = page.ids.length >= mPageSize;
+            mPages.add(page);
+            dropPages(true, droppedPages);
+        } else {
+            mHasMoreBefore = page.ids.length >= mPageSize;
+            mPages.add(0, page);
+            dropPages(false, droppedPages);
+        }
+
+        mLoadedCount = 0;
+        for (Page loadedPage : mPages) {
+            mLoadedCount += loadedPage.ids.length;
+        }
+
+        Rows rows = new Rows(this, mPages.toArray(new Page[mPages.size()]), mLoadedCount);
+        mLiveRows.add(rows);
+        closeUnusedPages(droppedPages);
+
+        mCallback.onPetsLoaded(rows);
+
+        // The visible pets may still be close to an end, after a reload or a short page
+        loadMoreIfNeeded();
+    }
+
+    /**
+     * Drop pages from the start, or the end, of the loaded ones while there are more than
+     * {@link #MAX_LOADED_PAGES}, stopping at the first page with a visible pet.
+     */
+    private void dropPages(boolean fromStart, List<Page> droppedPages) {
+        while (mPages.size() > MAX_LOADED_PAGES) {
+            Page page = mPages.get(fromStart ? 0 : mPages.size() - 1);
+            if (page.indexOf(mFirstVisibleId) != -1 || page.indexOf(mLastVisibleId) != -1) {
+                return;
+            }
+            mPages.remove(page);
+            droppedPages.add(page);
+            if (fromStart) {
+                mHasMoreBefore = true;
+            } else {
+                mHasMoreAfter = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the position among the loaded pets of the pet with the given id, or -1.
+     */
+    private int findPosition(long id) {
+        int pageStart = 0;
+        for (Page page : mPages) {
+            int index = page.indexOf(id);
+            if (index != -1) {
+                return pageStart + index;
+            }
+            pageStart += page.ids.length;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the loaded page holding the pet with the given id, or -1.
+     */
+    private int findPage(long id) {
+        for (int i = 0; i < mPages.size(); i++) {
+            if (mPages.get(i).indexOf(id) != -1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Called by {@link Rows#release()}.
+     */
+    private void release(Rows rows) {
+        // Rows released after the pager was stopped have already been closed
+        if (mLiveRows.remove(rows)) {
+            closeUnusedPages(rows.mPages);
+        }
+    }
+
+    /**
+     * Close the given pages that are neither loaded nor part of rows still in use.
+     */
+    private void closeUnusedPages(Collection<Page> pages) {
+        for (Page page : pages) {
+            if (mPages.contains(page)) {
+                continue;
+            }
+            boolean inUse = false;
+            for (Rows rows : mLiveRows) {
+                if (rows.mPages.contains(page)) {
+                    inUse = true;
+                    break;
+                }
+            }
+            if (!inUse) {
+                page.cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Every pet loaded by the pager at one point in time. The ids and contents are plain
+     * arrays, so they can be read from any thread; the cursor only from the main thread.
+     */
+    public static final class Rows {
+
+        private final PetPager mPager;
+        private final List<Page> mPages;
+        private final Cursor mCursor;
+        private final long[] mIds;
+        private final int[] mContentHashes;
+
+        /**
+         * Position of the first row of each page
+         */
+        private final int[] mPageStarts;
+
+        private Rows(PetPager pager, Page[] pages, int count) {
+            mPager = pager;
+            mPages = Arrays.asList(pages);
+            mIds = new long[count];
+            mContentHashes = new int[count];
+            mPageStarts = new int[pages.length];
+
+            Cursor[] cursors = new Cursor[pages.length];
+            int offset = 0;
+            for (int i = 0; i < pages.length; i++) {
+                Page page = pages[i];
+                cursors[i] = page.cursor;
+                mPageStarts[i] = offset;
+                System.arraycopy(page.ids, 0, mIds, offset, page.ids.length);
+                System.arraycopy(page.contentHashes, 0, mContentHashes, offset, page.ids.length);
+                offset += page.ids.length;
+            }
+            mCursor = new PageCursor(cursors);
+        }
+
+        /**
+         * A cursor over all the rows. It belongs to the pager; don't close it.
+         */
+        public Cursor getCursor() {
+            return mCursor;
+        }
+
+        public int getCount() {
+            return mIds.length;
+        }
+
+        /**
+         * The _id of the pet at the given position
+         */
+        public long getId(int position) {
+            return mIds[position];
+        }
+
+        /**
+         * A hash of every column of the pet at the given position other than its _id. Rows with
+         * different hashes have different contents.
+         */
+        public int getContentHash(int position) {
+            return mContentHashes[position];
+        }
+
+        /**
+         * Returns true if the pet at the given position has the same value as the pet at the
+         * other position of the other rows in every column other than _id. The hashes are
+         * compared first, and the values only when they match.
+         */
+        public boolean contentEquals(int position, Rows other, int otherPosition) {
+            if (mContentHashes[position] != other.mContentHashes[otherPosition]) {
+                return false;
+            }
+            int page = findPage(position);
+            int otherPage = other.findPage(otherPosition);
+            return mPages.get(page).contentEquals(position - mPageStarts[page],
+                    other.mPages.get(otherPage), otherPosition - other.mPageStarts[otherPage]);
+        }
+
+        /**
+         * Returns the index of the page holding the given position.
+         */
+        private int findPage(int position) {
+            int page = mPageStarts.length - 1;
+            while (mPageStarts[page] > position) {
+                page--;
+            }
+            return page;
+        }
+
+        /**
+         * Tell the pager these rows are no longer used, so the pages only they use can be
+         * closed. Must be called on the main thread; calling it more than once is harmless.
+         */
+        public void release() {
+            mPager.release(this);
+        }
+    }
+
+    /**
+     * One page of pets: the cursor and what was read from it on the background thread.
+     */
+    private static class Page {
+        final Cursor cursor;
+        final long[] ids;
+        final int[] contentHashes;
+
+        /**
+         * Number of columns other than _id
+         */
+        final int valueCount;
+
+        /**
+         * The characters of every value other than _id, row after row, where each row starts,
+         * and the length of each value, or -1 for null
+         */
+        final char[] contents;
+        final int[] rowStarts;
+        final int[] valueLengths;
+
+        /**
+         * Sort key and id of the first pet, which are the key of the previous page
+         */
+        String firstKey;
+        long firstId;
+
+        /**
+         * Sort key and id of the last pet, which are the key of the next page
+         */
+        String lastKey;
+        long lastId;
+
+        Page(Cursor cursor, String keyColumn) {
+            this.cursor = cursor;
+            int count = cursor.getCount();
+            ids = new long[count];
+            contentHashes = new int[count];
+
+            int idColumnIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+            int keyColumnIndex = cursor.getColumnIndexOrThrow(keyColumn);
+            int columnCount = cursor.getColumnCount();
+            valueCount = columnCount - 1;
+            rowStarts = new int[count + 1];
+            valueLengths = new int[count * valueCount];
+
+            CharArrayBuffer buffer = new CharArrayBuffer(32);
+            char[] chars = new char[count * 32];
+            int length = 0;
+            int value = 0;
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                ids[i] = cursor.getLong(idColumnIndex);
+                rowStarts[i] = length;
+                int hash = 0;
+                for (int column = 0; column < columnCount; column++) {
+                    if (column == idColumnIndex) {
+                        continue;
+                    }
+                    int valueLength = -1;
+                    if (!cursor.isNull(column)) {
+                        cursor.copyStringToBuffer(column, buffer);
+                        valueLength = buffer.sizeCopied;
+                        if (length + valueLength > chars.length) {
+                            chars = Arrays.copyOf(chars,
+                                    Math.max(2 * chars.length, length + valueLength));
+                        }
+                        System.arraycopy(buffer.data, 0, chars, length, valueLength);
+                        length += valueLength;
+                        for (int c = 0; c < valueLength; c++) {
+                            hash = 31 * hash + buffer.data[c];
+                        }
+                    }
+                    hash = 31 * hash + valueLength;
+                    valueLengths[value++] = valueLength;
+                }
+                contentHashes[i] = hash;
+            }
+            rowStarts[count] = length;
+            contents = chars;
+
+            if (cursor.moveToFirst()) {
+                firstKey = cursor.getString(keyColumnIndex);
+                firstId = cursor.getLong(idColumnIndex);
+            }
+            if (cursor.moveToLast()) {
+                lastKey = cursor.getString(keyColumnIndex);
+                lastId = cursor.getLong(idColumnIndex);
+            }
+            // Leave the cursor where a new one would be, before the first row
+            cursor.moveToPosition(-1);
+        }
+
+        /**
+         * Returns true if the row at the given index has the same values as the row of the
+         * other page.
+         */
+        boolean contentEquals(int row, Page other, int otherRow) {
+            if (valueCount != other.valueCount) {
+                return false;
+            }
+            int start = rowStarts[row];
+            int otherStart = other.rowStarts[otherRow];
+            int length = rowStarts[row + 1] - start;
+            if (length != other.rowStarts[otherRow + 1] - otherStart) {
+                return false;
+            }
+            for (int i = 0; i < valueCount; i++) {
+                if (valueLengths[row * valueCount + i]
+                        != other.valueLengths[otherRow * valueCount + i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                if (contents[start + i] != other.contents[otherStart + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the index of the pet with the given id in this page, or -1.
+         */
+        int indexOf(long id) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A cursor showing the rows of another one in reverse, for the pages queried backwards.
+     */
+    private static class ReversedCursor extends CursorWrapper {
+
+        private final int mCount;
+
+        ReversedCursor(Cursor cursor) {
+            super(cursor);
+            mCount = cursor.getCount();
+        }
+
+        @Override
+        public int getPosition() {
+            return mCount - 1 - super.getPosition();
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            // Before the first row here is after the last one underneath, and the other way round
+            position = Math.max(-1, Math.min(position, mCount));
+            return super.moveToPosition(mCount - 1 - position);
+        }
+
+        @Override
+        public boolean move(int offset) {
+            return moveToPosition(getPosition() + offset);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return moveToPosition(0);
+        }
+
+        @Override
+        public boolean moveToLast() {
+            return moveToPosition(mCount - 1);
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return moveToPosition(getPosition() + 1);
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            return moveToPosition(getPosition() - 1);
+        }
+
+        @Override
+        public boolean isFirst() {
+            return mCount != 0 && getPosition() == 0;
+        }
+
+        @Override
+        public boolean isLast() {
+            return mCount != 0 && getPosition() == mCount - 1;
+        }
+
+        @Override
+        public boolean isBeforeFirst() {
+            return mCount == 0 || getPosition() == -1;
+        }
+
+        @Override
+        public boolean isAfterLast() {
+            return mCount == 0 || getPosition() == mCount;
+        }
+    }
+
+    /**
+     * A {@link MergeCursor} over the pages that copies strings straight from the page it is on.
+     * MergeCursor inherits the default copyStringToBuffer, which reads a new String and copies
+     * it, while the database cursors of the pages can copy out of their window directly.
+     */
+    private static class PageCursor extends MergeCursor {
+
+        private final Cursor[] mPageCursors;
+
+        /**
+         * The page holding the current position, or null when the position is out of range
+         */
+        private Cursor mCurrentPage;
+
+        PageCursor(Cursor[] pages) {
+            super(pages);
+            mPageCursors = pages;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            mCurrentPage = null;
+            int pageStart = 0;
+            for (Cursor page : mPageCursors) {
+                int pageCount = page.getCount();
+                if (newPosition < pageStart + pageCount) {
+                    mCurrentPage = page;
+                    break;
+                }
+                pageStart += pageCount;
+            }
+            return super.onMove(oldPosition, newPosition);
+        }
+
+        @Override
+        public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+            if (mCurrentPage == null) {
+                super.copyStringToBuffer(columnIndex, buffer);
+                return;
+            }
+            mCurrentPage.copyStringToBuffer(columnIndex, buffer);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.android.pets.data;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link PetPhotoStore} keeps the photos of the pets, and their thumbnails, as files for
+ * {@link PetProvider}. The database only holds the name of each pet's photo file.
+ * <p>
+ * A photo is written through a pipe: the writer gets one end, and the bytes are copied into a
+ * temporary file on a background thread. The thumbnail is made from the complete file right
+ * away, once, so lists never have to decode a full size photo. Only then is the photo given its
+ * final name and handed to the {@link Owner} to be stored on the pet.
+ * <p>
+ * Files no pet refers to any more (replaced photos, deleted pets) are removed by
+ * {@link #scheduleCleanup()}. Cleanups and the final step of every write run on the same thread,
+ * so a cleanup never sees a photo that has been named but not yet stored on its pet.
+ */
+class PetPhotoStore {
+
+    private static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+
+    /**
+     * Suffix of the files photos are copied into before they are complete
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int THUMBNAIL_JPEG_QUALITY = 85;
+
+    /**
+     * What the store needs from the provider.
+     */
+    interface Owner {
+
+        /**
+         * Store the name of a newly written photo on the pet. Called on the store's thread.
+         */
+        void onPhotoSaved(long petId, String photo);
+
+        /**
+         * Returns the names of the photos pets refer to. Called on the store's thread.
+         */
+        Set<String> getPhotosInUse();
+    }
+
+    private final File mOriginalsDir;
+    private final File mThumbnailsDir;
+    private final Owner mOwner;
+
+    /**
+     * Copies photos out of their pipes. Each copy takes a thread for as long as the writer
+     * keeps its end open.
+     */
+    private final ExecutorService mCopyExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * Finishes writes and runs cleanups, one at a time
+     */
+    private final ExecutorService mStoreExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * True while a cleanup is waiting to run
+     */
+    private final AtomicBoolean mCleanupScheduled = new AtomicBoolean();
+
+    PetPhotoStore(File dir, Owner owner) {
+        mOriginalsDir = new File(dir, "originals");
+        mThumbnailsDir = new File(dir, "thumbnails");
+        mOwner = owner;
+    }
+
+    /**
+     * Returns the file holding the given photo.
+     */
+    File getPhotoFile(String photo) {
+        return new File(mOriginalsDir, photo);
+    }
+
+    /**
+     * Returns the file holding the thumbnail of the given photo.
+     */
+    File getThumbnailFile(String photo) {
+        return new File(mThumbnailsDir, photo);
+    }
+
+    /**
+     * Start writing a new photo for the given pet. Returns the end of a pipe to write the photo
+     * to; it is stored once that end is closed, if it holds an image.
+     */
+    ParcelFileDescriptor openForWriting(final long petId) throws FileNotFoundException {
+        if (!mOriginalsDir.isDirectory() && !mOriginalsDir.mkdirs()
+                || !mThumbnailsDir.isDirectory() && !mThumbnailsDir.mkdirs()) {
+            throw new FileNotFoundException("Can't create the photo directories");
+        }
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Can't create a pipe: " + e.getMessage());
+        }
+
+        mCopyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String photo = petId + "-" + System.currentTimeMillis();
+                final File tempFile = new File(mOriginalsDir, photo + TEMP_SUFFIX);
+
+                InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+                try {
+                    copy(in, tempFile);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to receive the photo of pet " + petId, e);
+                    tempFile.delete();
+                    return;
+                } finally {
+                    closeQuietly(in);
+                }
+
+                mStoreExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        savePhoto(petId, photo, tempFile);
+                    }
+                });
+            }
+        });
+
+        return pipe[1];
+    }
+
+    /**
+     * Make the thumbnail of a received photo, give the photo its final name and store it on
+     * the pet. Runs on the store's thread.
+     */
+    private void savePhoto(long petId, String photo, File tempFile) {
+        File thumbnailFile = getThumbnailFile(photo);
+        try {
+            writeThumbnail(tempFile, thumbnailFile);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to make a thumbnail for pet " + petId, e);
+            tempFile.delete();
+            thumbnailFile.delete();
+            return;
+        }
+
+        if (!tempFile.renameTo(getPhotoFile(photo))) {
+            Log.e(LOG_TAG, "Failed to store the photo of pet " + petId);
+            tempFile.delete();
+            thumbnailFile.delete();
+            return;
+        }
+
+        mOwner.onPhotoSaved(petId, photo);
+
+        // The photo this one replaced, if any, is no longer needed
+        scheduleCleanup();
+    }
+
+    /**
+     * Schedule the removal of the photos no pet refers to. Calls made while a cleanup is
+     * already waiting are folded into it.
+     */
+    void scheduleCleanup() {
+        if (!mCleanupScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        mStoreExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCleanupScheduled.set(false);
+                try {
+                    Set<String> photosInUse = mOwner.getPhotosInUse();
+                    deleteUnused(mOriginalsDir, photosInUse);
+                    deleteUnused(mThumbnailsDir, photosInUse);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to clean up the photos", e);
+                }
+            }
+        });
+    }
+
+    private static void deleteUnused(File dir, Set<String> photosInUse) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            // Temporary files belong to copies that are still running
+            if (!name.endsWith(TEMP_SUFFIX) && !photosInUse.contains(name)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Decode the photo, scaled down as far as possible while decoding, crop the middle square
+     * of it and write that as a {@link PetEntry#THUMBNAIL_SIZE_PX} JPEG.
+     */
+    private static void writeThumbnail(File photoFile, File thumbnailFile) throws IOException {
+        int size = PetEntry.THUMBNAIL_SIZE_PX;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photoFile.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image");
+        }
+
+        // Largest power of two that keeps the short side at least the thumbnail size
+        int shortSide = Math.min(options.outWidth, options.outHeight);
+        options.inSampleSize = 1;
+        while (shortSide / (options.inSampleSize * 2) >= size) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+
+        Bitmap decoded = BitmapFactory.decodeFile(photoFile.getPath(), options);
+        if (decoded == null) {
+            throw new IOException("Can't decode the image");
+        }
+
+        int side = Math.min(decoded.getWidth(), decoded.getHeight());
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) size / side, (float) size / side);
+        matrix.postRotate(getRotation(photoFile));
+
+        Bitmap thumbnail = Bitmap.createBitmap(decoded,
+                (decoded.getWidth() - side) / 2, (decoded.getHeight() - side) / 2,
+                side, side, matrix, true);
+
+        OutputStream out = new FileOutputStream(thumbnailFile);
+        try {
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_JPEG_QUALITY, out);
+        } finally {
+            out.close();
+            thumbnail.recycle();
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * Returns how many degrees the photo has to be turned clockwise to be upright, going by its
+     * EXIF data.
+     */
+    private static int getRotation(File photoFile) {
+        try {
+            ExifInterface exif = new ExifInterface(photoFile.getPath());
+            switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            // Not a JPEG, or no EXIF data
+            return 0;
+        }
+    }
+
+    private static void copy(InputStream in, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+}
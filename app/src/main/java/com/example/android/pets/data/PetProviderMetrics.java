@@ -0,0 +1,232 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.v4.os.TraceCompat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link PetProviderMetrics} measures the operations of {@link PetProvider}: how many there
+ * were, how many failed, how long they took, as a histogram, and how many rows they touched.
+ * Queries count the rows of the cursor they return, and the transactions of bulk inserts and
+ * batches are measured on their own. The change notifications asked for, and the ones sent
+ * once coalesced, are counted too.
+ * <p>
+ * Every operation is also a trace section, so it shows up in systrace. Sections cost next to
+ * nothing while no trace is being recorded. The metrics are off by default; while they are off
+ * an operation costs one volatile read. While they are on, it costs a few atomic increments.
+ * <p>
+ * All methods are thread safe.
+ */
+class PetProviderMetrics {
+
+    /**
+     * The operations that are measured
+     */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int APPLY_BATCH = 5;
+    static final int OPEN_FILE = 6;
+    static final int TRANSACTION = 7;
+
+    /**
+     * Names of the operations, which are also the keys of their statistics in a snapshot
+     */
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete", "apply_batch", "open_file",
+            "transaction"
+    };
+
+    private static final String[] TRACE_SECTIONS = {
+            "PetProvider.query", "PetProvider.insert", "PetProvider.bulkInsert",
+            "PetProvider.update", "PetProvider.delete", "PetProvider.applyBatch",
+            "PetProvider.openFile", "PetProvider.transaction"
+    };
+
+    /**
+     * Number of latency buckets. Bucket 0 counts operations under 1us, bucket i those from
+     * 2^(i-1) up to 2^i us, and the last one everything from about 4s up.
+     */
+    private static final int BUCKET_COUNT = 24;
+
+    /**
+     * Start time returned by {@link #begin} while the metrics are off
+     */
+    private static final long NOT_MEASURED = Long.MIN_VALUE;
+
+    private volatile boolean mEnabled;
+
+    private final Operation[] mOperations = new Operation[OPERATION_NAMES.length];
+
+    private final AtomicLong mNotificationsRequested = new AtomicLong();
+    private final AtomicLong mNotificationsSent = new AtomicLong();
+
+    PetProviderMetrics() {
+        for (int i = 0; i < mOperations.length; i++) {
+            mOperations[i] = new Operation();
+        }
+    }
+
+    /**
+     * Turn the metrics on or off. Turning them on starts them again from zero.
+     */
+    void setEnabled(boolean enabled) {
+        if (enabled && !mEnabled) {
+            reset();
+        }
+        mEnabled = enabled;
+    }
+
+    /**
+     * Start an operation. Returns the start time to pass to {@link #end}, which has to be
+     * called on the same thread.
+     */
+    long begin(int operation) {
+        TraceCompat.beginSection(TRACE_SECTIONS[operation]);
+        return mEnabled ? System.nanoTime() : NOT_MEASURED;
+    }
+
+    /**
+     * End an operation started with {@link #begin}.
+     *
+     * @param rows number of rows the operation touched, or -1 if it failed
+     */
+    void end(int operation, long start, long rows) {
+        TraceCompat.endSection();
+        if (start != NOT_MEASURED) {
+            mOperations[operation].record(System.nanoTime() - start, rows);
+        }
+    }
+
+    /**
+     * End a query started with {@link #begin}, counting the rows of its cursor. The cursor is
+     * null if the query failed.
+     */
+    void endQuery(long start, Cursor cursor) {
+        // Counting the rows fills the cursor's first window, so only do it while measuring
+        end(QUERY, start, start == NOT_MEASURED || cursor == null ? -1 : cursor.getCount());
+    }
+
+    /**
+     * Count a change notification asked for by a write.
+     */
+    void onNotificationRequested() {
+        if (mEnabled) {
+            mNotificationsRequested.incrementAndGet();
+        }
+    }
+
+    /**
+     * Count a change notification sent to the content resolver.
+     */
+    void onNotificationSent() {
+        if (mEnabled) {
+            mNotificationsSent.incrementAndGet();
+        }
+    }
+
+    private void reset() {
+        for (Operation operation : mOperations) {
+            operation.reset();
+        }
+        mNotificationsRequested.set(0);
+        mNotificationsSent.set(0);
+    }
+
+    /**
+     * Returns what has been measured so far, under the KEY_METRICS_* keys of
+     * {@link PetContract}. Counters are read one at a time while operations may still be
+     * running, so they can be slightly out of step with each other.
+     */
+    Bundle getSnapshot() {
+        Bundle snapshot = new Bundle();
+        snapshot.putBoolean(PetContract.KEY_METRICS_ENABLED, mEnabled);
+        snapshot.putStringArray(PetContract.KEY_METRICS_OPERATIONS, OPERATION_NAMES);
+        snapshot.putLongArray(PetContract.KEY_METRICS_BUCKET_LIMITS_MICROS, getBucketLimits());
+        snapshot.putLong(PetContract.KEY_METRICS_NOTIFICATIONS_REQUESTED,
+                mNotificationsRequested.get());
+        snapshot.putLong(PetContract.KEY_METRICS_NOTIFICATIONS_SENT, mNotificationsSent.get());
+        for (int i = 0; i < mOperations.length; i++) {
+            snapshot.putBundle(OPERATION_NAMES[i], mOperations[i].getSnapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the exclusive upper limit of each latency bucket but the last, in microseconds
+     */
+    private static long[] getBucketLimits() {
+        long[] limits = new long[BUCKET_COUNT - 1];
+        for (int i = 0; i < limits.length; i++) {
+            limits[i] = 1L << i;
+        }
+        return limits;
+    }
+
+    private static int getBucket(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        // The number of bits of the latency in microseconds is its bucket
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * The counters of one operation.
+     */
+    private static class Operation {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errorCount = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        void record(long nanos, long rowCount) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            buckets.incrementAndGet(getBucket(nanos));
+            if (rowCount < 0) {
+                errorCount.incrementAndGet();
+            } else {
+                rows.addAndGet(rowCount);
+            }
+
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        void reset() {
+            count.set(0);
+            errorCount.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            rows.set(0);
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        Bundle getSnapshot() {
+            long[] histogram = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                histogram[i] = buckets.get(i);
+            }
+
+            Bundle snapshot = new Bundle();
+            snapshot.putLong(PetContract.KEY_OPERATION_COUNT, count.get());
+            snapshot.putLong(PetContract.KEY_OPERATION_ERROR_COUNT, errorCount.get());
+            snapshot.putLong(PetContract.KEY_OPERATION_TOTAL_NANOS, totalNanos.get());
+            snapshot.putLong(PetContract.KEY_OPERATION_MAX_NANOS, maxNanos.get());
+            snapshot.putLong(PetContract.KEY_OPERATION_ROWS, rows.get());
+            snapshot.putLongArray(PetContract.KEY_OPERATION_LATENCY_HISTOGRAM, histogram);
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PetShard} is the database of one shelter, as used by {@link PetProvider}: the helper of
+ * its file, its breeds, and the compiled statements for its single pet operations. Shards share
+ * nothing, so a write to one shelter never waits for a reader or writer of another.
+ */
+final class PetShard {
+
+    private final long mShelterId;
+    private final PetDbHelper mDbHelper;
+    private final BreedDictionary mBreeds = new BreedDictionary();
+
+    /**
+     * Deletion time of the pets of the most recent delete made through the provider, or 0 if
+     * there is nothing to undo
+     */
+    private final AtomicLong mLastDeletedAt = new AtomicLong();
+
+    /**
+     * Compiled statements for the current writable database. Guarded by this shard.
+     */
+    private PetStatementCache mStatementCache;
+
+    PetShard(long shelterId, PetDbHelper dbHelper) {
+        mShelterId = shelterId;
+        mDbHelper = dbHelper;
+    }
+
+    long getShelterId() {
+        return mShelterId;
+    }
+
+    PetDbHelper getDbHelper() {
+        return mDbHelper;
+    }
+
+    /**
+     * The breeds of the shelter's database
+     */
+    BreedDictionary getBreeds() {
+        return mBreeds;
+    }
+
+    /**
+     * Remember the deletion time of a delete made through the provider, so it can be undone.
+     */
+    void setLastDeletedAt(long deletedAt) {
+        mLastDeletedAt.set(deletedAt);
+    }
+
+    /**
+     * Returns the deletion time of the delete to undo, and forgets it, or 0 if there is none.
+     */
+    long takeLastDeletedAt() {
+        return mLastDeletedAt.getAndSet(0);
+    }
+
+    /**
+     * The pets URI of the shelter, which is notified of changes to all of its pets
+     */
+    Uri getPetsUri() {
+        return ShelterEntry.buildPetsUri(mShelterId);
+    }
+
+    /**
+     * Returns the statement cache for the current writable database, creating a new one if the
+     * database has been reopened since the last call.
+     */
+    synchronized PetStatementCache getStatementCache() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (mStatementCache == null || mStatementCache.getDatabase() != database) {
+            mStatementCache = new PetStatementCache(database);
+        }
+        return mStatementCache;
+    }
+}
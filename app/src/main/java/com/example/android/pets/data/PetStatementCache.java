@@ -0,0 +1,205 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PetStatementCache} runs the single pet (PET_ID) operations of {@link PetProvider}
+ * with statements that are compiled once per database and then re-bound for every call.
+ * <p>
+ * The pet id is bound as a long, instead of being turned into a String selection argument and
+ * parsed back by SQLite. Pets that have been deleted are left out of every operation. Deletes,
+ * which only mark the pet as deleted, use a single cached statement, updates one statement per set of
+ * updated columns (the editor always updates the same columns, so that is usually one), and
+ * queries one SQL string per projection.
+ * <p>
+ * The platform keeps the native prepared statements in its own per connection cache; what this
+ * saves is building the SQL and preparing a new {@link SQLiteStatement} on every call.
+ */
+class PetStatementCache {
+
+    /**
+     * Upper bound on the number of update statements and query strings kept, so callers
+     * updating arbitrary column combinations can't grow the cache without limit
+     */
+    private static final int MAX_ENTRIES = 16;
+
+    /**
+     * Selection of the live pet with the given id
+     */
+    private static final String SELECTION_LIVE_BY_ID = PetEntry._ID + " = ? AND "
+            + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL";
+
+    private static final String SQL_DELETE_BY_ID = "UPDATE " + PetEntry.TABLE_NAME
+            + " SET " + PetEntry.COLUMN_PET_DELETED_AT + " = ? WHERE " + SELECTION_LIVE_BY_ID;
+
+    private final SQLiteDatabase mDatabase;
+
+    /**
+     * Statements guarded by this object. Each statement is also locked while it is bound and
+     * executed, since binder threads can use it at the same time.
+     */
+    private SQLiteStatement mDeleteStatement;
+    private final Map<String, SQLiteStatement> mUpdateStatements = new HashMap<>();
+    private final Map<String, String> mQueries = new HashMap<>();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    PetStatementCache(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * The database the statements were compiled for
+     */
+    SQLiteDatabase getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * Number of operations that found their statement in the cache
+     */
+    long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * Number of operations that had to compile a new statement
+     */
+    long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Query the given columns of the pet with the given id.
+     */
+    Cursor queryById(String[] projection, final long id) {
+        String sql = getQuery(projection);
+
+        // The factory gets the compiled query before it runs, which lets it bind the id as a long
+        SQLiteDatabase.CursorFactory factory = new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver,
+                                    String editTable, SQLiteQuery query) {
+                query.bindLong(1, id);
+                return new SQLiteCursor(driver, editTable, query);
+            }
+        };
+
+        return mDatabase.rawQueryWithFactory(factory, sql, null, PetEntry.TABLE_NAME);
+    }
+
+    /**
+     * Update the pet with the given id with the given values, which must not be empty.
+     * Returns the number of rows updated.
+     */
+    int updateById(ContentValues values, long id) {
+        String[] columns = values.keySet().toArray(new String[values.size()]);
+        // Sort the columns so the same set always maps to the same statement
+        Arrays.sort(columns);
+
+        SQLiteStatement statement = getUpdateStatement(columns);
+        synchronized (statement) {
+            try {
+                for (int i = 0; i < columns.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+                }
+                statement.bindLong(columns.length + 1, id);
+                return statement.executeUpdateDelete();
+            } finally {
+                statement.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Mark the pet with the given id as deleted at the given time. Returns the number of rows
+     * deleted.
+     */
+    int deleteById(long id, long deletedAt) {
+        SQLiteStatement statement = getDeleteStatement();
+        synchronized (statement) {
+            try {
+                statement.bindLong(1, deletedAt);
+                statement.bindLong(2, id);
+                return statement.executeUpdateDelete();
+            } finally {
+                statement.clearBindings();
+            }
+        }
+    }
+
+    private synchronized String getQuery(String[] projection) {
+        String key = projection == null ? "*" : TextUtils.join(",", projection);
+
+        String sql = mQueries.get(key);
+        if (sql != null) {
+            mHitCount.incrementAndGet();
+            return sql;
+        }
+
+        mMissCount.incrementAndGet();
+        sql = SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME, projection,
+                SELECTION_LIVE_BY_ID, null, null, null, null);
+        if (mQueries.size() >= MAX_ENTRIES) {
+            mQueries.clear();
+        }
+        mQueries.put(key, sql);
+        return sql;
+    }
+
+    private synchronized SQLiteStatement getUpdateStatement(String[] columns) {
+        String key = TextUtils.join(",", columns);
+
+        SQLiteStatement statement = mUpdateStatements.get(key);
+        if (statement != null) {
+            mHitCount.incrementAndGet();
+            return statement;
+        }
+
+        mMissCount.incrementAndGet();
+        StringBuilder sql = new StringBuilder("UPDATE ").append(PetEntry.TABLE_NAME).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]).append(" = ?");
+        }
+        sql.append(" WHERE ").append(SELECTION_LIVE_BY_ID);
+
+        statement = mDatabase.compileStatement(sql.toString());
+        if (mUpdateStatements.size() >= MAX_ENTRIES) {
+            // Statements being executed right now stay usable; they are only unreferenced here
+            mUpdateStatements.clear();
+        }
+        mUpdateStatements.put(key, statement);
+        return statement;
+    }
+
+    private synchronized SQLiteStatement getDeleteStatement() {
+        if (mDeleteStatement != null) {
+            mHitCount.incrementAndGet();
+            return mDeleteStatement;
+        }
+
+        mMissCount.incrementAndGet();
+        mDeleteStatement = mDatabase.compileStatement(SQL_DELETE_BY_ID);
+        return mDeleteStatement;
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import com.example.android.pets.data.PetContract.ChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.SyncStateEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link PetSyncEngine} syncs the pets of the default shelter of {@link PetProvider} with a
+ * {@link PetSyncServer}, sending and receiving only what changed since the last sync.
+ * <p>
+ * A sync first pulls the records stored on the server since the last version pulled, skipping
+ * the ones the pets already are, such as the changes pushed from here, and then pushes the
+ * pending changes of {@link ChangeEntry}, both in batches. Each batch is written
+ * with one {@link ContentResolver#applyBatch}, so the pets, the change log and the
+ * {@link SyncStateEntry} always agree, and a sync that fails half way carries on from the last
+ * batch next time. Pushed changes are taken out of the change log once the server has
+ * acknowledged them.
+ * <p>
+ * A pet changed both here and on the server is a conflict, which the server wins: the local
+ * change is dropped and the server's record is written over the pet.
+ */
+public class PetSyncEngine {
+
+    /**
+     * What a sync did.
+     */
+    public static final class Result {
+        private final int mPulled;
+        private final int mPushed;
+        private final int mConflicts;
+
+        Result(int pulled, int pushed, int conflicts) {
+            mPulled = pulled;
+            mPushed = pushed;
+            mConflicts = conflicts;
+        }
+
+        /**
+         * Returns the number of server records written to the pets.
+         */
+        public int getPulled() {
+            return mPulled;
+        }
+
+        /**
+         * Returns the number of local changes the server accepted.
+         */
+        public int getPushed() {
+            return mPushed;
+        }
+
+        /**
+         * Returns the number of local changes dropped for a newer record of the server.
+         */
+        public int getConflicts() {
+            return mConflicts;
+        }
+    }
+
+    /**
+     * Number of records pulled, or changes pushed, per batch
+     */
+    public static final int BATCH_SIZE = 100;
+
+    private static final String SYNC_ID_SELECTION = PetEntry.COLUMN_PET_SYNC_ID + " = ?";
+
+    /**
+     * The columns of a pending change, in the order {@link #readChange} expects them
+     */
+    private static final String[] CHANGE_COLUMNS = {
+            ChangeEntry._ID,
+            ChangeEntry.COLUMN_SYNC_ID,
+            ChangeEntry.COLUMN_SYNC_VERSION,
+            ChangeEntry.COLUMN_DELETED,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    private final ContentResolver mContentResolver;
+    private final PetSyncServer mServer;
+
+    private int mPulled;
+    private int mPushed;
+    private int mConflicts;
+
+    public PetSyncEngine(ContentResolver contentResolver, PetSyncServer server) {
+        mContentResolver = contentResolver;
+        mServer = server;
+    }
+
+    /**
+     * Pull what changed on the server, then push what changed here. Not thread safe: run one
+     * sync at a time.
+     *
+     * @return what the sync did
+     */
+    public Result sync() throws IOException {
+        mPulled = 0;
+        mPushed = 0;
+        mConflicts = 0;
+        try {
+            pull();
+            push();
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new IOException("Failed to write the synced pets", e);
+        }
+        return new Result(mPulled, mPushed, mConflicts);
+    }
+
+    /**
+     * Write the server records stored since the last pull over the pets, a batch at a time.
+     */
+    private void pull() throws IOException, RemoteException, OperationApplicationException {
+        long pulledVersion = queryPulledVersion();
+        while (true) {
+            List<PetChange> records = mServer.pull(pulledVersion, BATCH_SIZE);
+            if (records.isEmpty()) {
+                return;
+            }
+
+            Map<String, Long> pending = queryVersions(ChangeEntry.CONTENT_URI, records);
+            Map<String, Long> local = queryVersions(PetEntry.CONTENT_URI, records);
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            for (PetChange record : records) {
+                pulledVersion = Math.max(pulledVersion, record.getVersion());
+
+                Long localVersion = local.get(record.getSyncId());
+                if (localVersion != null && localVersion == record.getVersion()) {
+                    // The pet already is this record, most likely pushed from here
+                    continue;
+                }
+
+                Long baseVersion = pending.get(record.getSyncId());
+                if (baseVersion != null && baseVersion == record.getVersion()) {
+                    // The pet changed here since the record, and the change will be pushed next
+                    continue;
+                }
+                if (baseVersion != null) {
+                    mConflicts++;
+                }
+                addWriteRecord(operations, record, baseVersion != null);
+                mPulled++;
+            }
+
+            ContentValues state = new ContentValues(1);
+            state.put(SyncStateEntry.COLUMN_PULLED_VERSION, pulledVersion);
+            operations.add(ContentProviderOperation.newUpdate(SyncStateEntry.CONTENT_URI)
+                    .withValues(state)
+                    .build());
+            mContentResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+
+            if (records.size() < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Push the pending changes, a batch at a time, and take the ones the server has
+     * acknowledged out of the change log.
+     */
+    private void push() throws IOException, RemoteException, OperationApplicationException {
+        Uri changesUri = ChangeEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(BATCH_SIZE))
+                .build();
+        while (true) {
+            List<PetChange> changes = new ArrayList<>();
+            long lastSequence = 0;
+            Cursor cursor = mContentResolver.query(changesUri, CHANGE_COLUMNS, null, null,
+                    ChangeEntry._ID);
+            if (cursor == null) {
+                return;
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    changes.add(readChange(cursor));
+                    lastSequence = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (changes.isEmpty()) {
+                return;
+            }
+
+            List<PetSyncServer.PushResult> results = mServer.push(changes);
+
+            // Every pet with a change up to the last one pushed is in the batch, so the changes
+            // up to it are all on the server now
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newDelete(ChangeEntry.CONTENT_URI)
+                    .withSelection(ChangeEntry._ID + " <= ?",
+                            new String[]{String.valueOf(lastSequence)})
+                    .build());
+            for (PetSyncServer.PushResult result : results) {
+                PetChange record = result.getRecord();
+                if (result.isAccepted()) {
+                    addAcknowledge(operations, record);
+                    mPushed++;
+                } else {
+                    addWriteRecord(operations, record, true);
+                    mConflicts++;
+                }
+            }
+            mContentResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+
+            if (changes.size() < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add the operations that write a server record over the pet with its sync id, dropping the
+     * pet's pending changes if it has any. Deleted records only delete pets that are still
+     * here; the server doesn't keep the data of every deleted pet.
+     */
+    private static void addWriteRecord(List<ContentProviderOperation> operations,
+                                       PetChange record, boolean dropChanges) {
+        String[] syncIdArgs = {record.getSyncId()};
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_SYNC_VERSION, record.getVersion());
+        if (record.isDeleted()) {
+            values.put(PetEntry.COLUMN_PET_DELETED_AT, System.currentTimeMillis());
+            operations.add(ContentProviderOperation
+                    .newUpdate(PetContract.asSyncAdapter(PetEntry.CONTENT_URI))
+                    .withValues(values)
+                    .withSelection(SYNC_ID_SELECTION + " AND "
+                            + PetEntry.COLUMN_PET_DELETED_AT + " IS NULL", syncIdArgs)
+                    .build());
+        } else {
+            values.put(PetEntry.COLUMN_PET_SYNC_ID, record.getSyncId());
+            values.put(PetEntry.COLUMN_PET_NAME, record.getName());
+            values.put(PetEntry.COLUMN_PET_BREED, record.getBreed());
+            values.put(PetEntry.COLUMN_PET_GENDER, record.getGender());
+            values.put(PetEntry.COLUMN_PET_WEIGHT, record.getWeight());
+            values.putNull(PetEntry.COLUMN_PET_DELETED_AT);
+            operations.add(ContentProviderOperation
+                    .newInsert(PetContract.asSyncAdapter(PetEntry.CONTENT_URI))
+                    .withValues(values)
+                    .build());
+        }
+
+        if (dropChanges) {
+            operations.add(ContentProviderOperation.newDelete(ChangeEntry.CONTENT_URI)
+                    .withSelection(SYNC_ID_SELECTION, syncIdArgs)
+                    .build());
+        }
+    }
+
+    /**
+     * Add the operations that move a pet, and any changes made to it while it was being pushed,
+     * onto the version the server gave the pushed change.
+     */
+    private static void addAcknowledge(List<ContentProviderOperation> operations,
+                                       PetChange record) {
+        String[] syncIdArgs = {record.getSyncId()};
+        ContentValues values = new ContentValues(1);
+        values.put(PetEntry.COLUMN_PET_SYNC_VERSION, record.getVersion());
+        operations.add(ContentProviderOperation
+                .newUpdate(PetContract.asSyncAdapter(PetEntry.CONTENT_URI))
+                .withValues(values)
+                .withSelection(SYNC_ID_SELECTION, syncIdArgs)
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(ChangeEntry.CONTENT_URI)
+                .withValues(values)
+                .withSelection(SYNC_ID_SELECTION, syncIdArgs)
+                .build());
+    }
+
+    /**
+     * Read a pending change from the current row of a cursor whose columns are
+     * {@link #CHANGE_COLUMNS}. Purged pets have no data left, only their deletion.
+     */
+    private static PetChange readChange(Cursor cursor) {
+        return new PetChange(cursor.getString(1), cursor.getLong(2), cursor.getInt(3) != 0,
+                cursor.getString(4), cursor.getString(5),
+                cursor.isNull(6) ? PetEntry.GENDER_UNKNOWN : cursor.getInt(6),
+                cursor.getInt(7));
+    }
+
+    /**
+     * Returns the highest server version pulled so far.
+     */
+    private long queryPulledVersion() {
+        Cursor cursor = mContentResolver.query(SyncStateEntry.CONTENT_URI,
+                new String[]{SyncStateEntry.COLUMN_PULLED_VERSION}, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the server version of the pets of the given records, by sync id, as found at the
+     * given URI: the version the pending changes are based on for {@link ChangeEntry}, or the
+     * version of the live pets for {@link PetEntry}. Pets that aren't there are left out.
+     */
+    private Map<String, Long> queryVersions(Uri uri, List<PetChange> records) {
+        StringBuilder selection = new StringBuilder(PetEntry.COLUMN_PET_SYNC_ID + " IN (");
+        String[] selectionArgs = new String[records.size()];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i] = records.get(i).getSyncId();
+        }
+        selection.append(')');
+
+        Map<String, Long> versions = new HashMap<>();
+        Cursor cursor = mContentResolver.query(uri,
+                new String[]{PetEntry.COLUMN_PET_SYNC_ID, PetEntry.COLUMN_PET_SYNC_VERSION},
+                selection.toString(), selectionArgs, null);
+        if (cursor == null) {
+            return versions;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                versions.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return versions;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.pets.data;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The central roster that {@link PetSyncEngine} syncs the pets of the device with. The server
+ * gives every record it stores a version from a single sequence, one higher than the version
+ * of the record stored before it, so a device can ask for everything after the last version
+ * it has seen.
+ */
+public interface PetSyncServer {
+
+    /**
+     * What the server did with one pushed change.
+     */
+    final class PushResult {
+        private final boolean mAccepted;
+        private final PetChange mRecord;
+
+        public PushResult(boolean accepted, PetChange record) {
+            mAccepted = accepted;
+            mRecord = record;
+        }
+
+        /**
+         * Returns true if the change was stored, or false if it was based on a version that
+         * isn't the server's latest one.
+         */
+        public boolean isAccepted() {
+            return mAccepted;
+        }
+
+        /**
+         * Returns the record the server now has for the pet: the stored change, with its new
+         * version, or the server's newer record the change conflicted with.
+         */
+        public PetChange getRecord() {
+            return mRecord;
+        }
+    }
+
+    /**
+     * Store the given changes, each of them only if it is based on the server's latest version
+     * of the pet (or the pet is new to the server).
+     *
+     * @return a result for each change, in the same order
+     */
+    List<PushResult> push(List<PetChange> changes) throws IOException;
+
+    /**
+     * Returns the records stored after the given version, deleted ones included, in version
+     * order, up to the given number of them.
+     */
+    List<PetChange> pull(long afterVersion, int limit) throws IOException;
+}
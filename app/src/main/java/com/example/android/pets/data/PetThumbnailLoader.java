@@ -0,0 +1,294 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@link PetThumbnailLoader} shows pet thumbnails in image views, without ever decoding on the
+ * main thread.
+ * <p>
+ * Thumbnails are looked up in two tiers: decoded bitmaps are kept in a memory LRU cache, and
+ * behind it are the thumbnail files {@link PetProvider} wrote when each photo was saved, which
+ * are decoded on a background thread. They are keyed by the name of the photo, which changes
+ * whenever the photo does, so a cached thumbnail is never stale.
+ * <p>
+ * All thumbnails have the same size, so the bitmap of a thumbnail that was evicted from the
+ * cache can be decoded into again (inBitmap) instead of allocating a new one. A bitmap is only
+ * reused once no image view shows it any more, which is why the loader keeps track of what
+ * every view it has been given is showing. Release views with {@link #clear} when they are
+ * recycled or go away.
+ * <p>
+ * All methods must be called from the main thread.
+ */
+public class PetThumbnailLoader {
+
+    private static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    /**
+     * Share of the heap given to the memory cache
+     */
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    /**
+     * Number of evicted bitmaps kept for reuse
+     */
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+
+    private final ContentResolver mContentResolver;
+
+    /**
+     * Drawable shown while a thumbnail loads, and for pets without a photo
+     */
+    private final int mPlaceholderResId;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final ExecutorService mDecodeExecutor = Executors.newFixedThreadPool(2);
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    /**
+     * Evicted bitmaps no view shows, ready to be decoded into. Guarded by itself, since
+     * decodes take them on background threads.
+     */
+    private final List<Bitmap> mReusableBitmaps = new ArrayList<>();
+
+    /**
+     * What each view shows, or is waiting for
+     */
+    private final Map<ImageView, Request> mRequests = new WeakHashMap<>();
+
+    /**
+     * Number of views showing each bitmap
+     */
+    private final Map<Bitmap, Integer> mDisplayCounts = new IdentityHashMap<>();
+
+    /**
+     * Bitmaps evicted from the cache while views were still showing them. They become
+     * reusable when the last of those views lets go of them.
+     */
+    private final Map<Bitmap, Boolean> mEvictedWhileShown = new IdentityHashMap<>();
+
+    public PetThumbnailLoader(ContentResolver contentResolver, int placeholderResId) {
+        mContentResolver = contentResolver;
+        mPlaceholderResId = placeholderResId;
+
+        int maxSizeBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_FRACTION);
+        mMemoryCache = new LruCache<String, Bitmap>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(String photo, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String photo, Bitmap oldBitmap,
+                                        Bitmap newBitmap) {
+                if (mDisplayCounts.containsKey(oldBitmap)) {
+                    mEvictedWhileShown.put(oldBitmap, Boolean.TRUE);
+                } else {
+                    addReusableBitmap(oldBitmap);
+                }
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of the given pet in the view, or the placeholder if the photo is null.
+     *
+     * @param photo the pet's {@link PetEntry#COLUMN_PET_PHOTO}
+     */
+    public void load(ImageView view, long petId, String photo) {
+        Request current = mRequests.get(view);
+        if (current != null && photo != null && photo.equals(current.photo)) {
+            // Already showing it, or on its way
+            return;
+        }
+
+        clear(view);
+        if (photo == null) {
+            return;
+        }
+
+        Bitmap bitmap = mMemoryCache.get(photo);
+        if (bitmap != null) {
+            Request request = new Request(photo, null);
+            mRequests.put(view, request);
+            show(view, request, bitmap);
+            return;
+        }
+
+        mRequests.put(view, new Request(photo,
+                mDecodeExecutor.submit(new DecodeTask(view, petId, photo))));
+    }
+
+    /**
+     * Show the placeholder in the view, cancelling what it was waiting for and letting go of
+     * what it was showing.
+     */
+    public void clear(ImageView view) {
+        Request request = mRequests.remove(view);
+        if (request != null) {
+            if (request.future != null) {
+                request.future.cancel(false);
+            }
+            if (request.bitmap != null) {
+                release(request.bitmap);
+            }
+        }
+        view.setImageResource(mPlaceholderResId);
+    }
+
+    private void show(ImageView view, Request request, Bitmap bitmap) {
+        request.bitmap = bitmap;
+        Integer count = mDisplayCounts.get(bitmap);
+        mDisplayCounts.put(bitmap, count == null ? 1 : count + 1);
+        view.setImageBitmap(bitmap);
+    }
+
+    private void release(Bitmap bitmap) {
+        Integer count = mDisplayCounts.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mDisplayCounts.put(bitmap, count - 1);
+            return;
+        }
+
+        mDisplayCounts.remove(bitmap);
+        if (mEvictedWhileShown.remove(bitmap) != null) {
+            addReusableBitmap(bitmap);
+        }
+    }
+
+    /**
+     * Called on the main thread when a decode has finished.
+     */
+    private void onDecoded(ImageView view, String photo, Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+
+        mMemoryCache.put(photo, bitmap);
+
+        // The view may have moved on to another pet in the meantime
+        Request request = mRequests.get(view);
+        if (request != null && photo.equals(request.photo) && request.bitmap == null) {
+            show(view, request, bitmap);
+        }
+    }
+
+    private void addReusableBitmap(Bitmap bitmap) {
+        synchronized (mReusableBitmaps) {
+            if (mReusableBitmaps.size() < MAX_REUSABLE_BITMAPS && bitmap.isMutable()) {
+                mReusableBitmaps.add(bitmap);
+            }
+        }
+    }
+
+    private Bitmap takeReusableBitmap() {
+        synchronized (mReusableBitmaps) {
+            return mReusableBitmaps.isEmpty()
+                    ? null
+                    : mReusableBitmaps.remove(mReusableBitmaps.size() - 1);
+        }
+    }
+
+    /**
+     * Decodes a thumbnail file on a background thread, reusing an evicted bitmap if there is one.
+     */
+    private class DecodeTask implements Runnable {
+        private final ImageView mView;
+        private final long mPetId;
+        private final String mPhoto;
+
+        DecodeTask(ImageView view, long petId, String photo) {
+            mView = view;
+            mPetId = petId;
+            mPhoto = photo;
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap;
+            try {
+                bitmap = decode(takeReusableBitmap());
+            } catch (IllegalArgumentException e) {
+                // The reused bitmap didn't fit after all; decode into a new one
+                bitmap = decode(null);
+            }
+
+            final Bitmap decoded = bitmap;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onDecoded(mView, mPhoto, decoded);
+                }
+            });
+        }
+
+        private Bitmap decode(Bitmap reusableBitmap) {
+            ParcelFileDescriptor file;
+            try {
+                // Only the thumbnail of the photo asked for, which is what it is cached under
+                file = mContentResolver.openFileDescriptor(
+                        PetEntry.buildThumbnailUri(mPetId, mPhoto), "r");
+            } catch (FileNotFoundException e) {
+                // The photo was replaced or removed; the list will be reloaded with its new name
+                return null;
+            }
+            if (file == null) {
+                return null;
+            }
+
+            try {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inMutable = true;
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                options.inBitmap = reusableBitmap;
+                return BitmapFactory.decodeFileDescriptor(file.getFileDescriptor(), null,
+                        options);
+            } finally {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to close thumbnail of pet " + mPetId, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The thumbnail a view asked for, and the bitmap it shows once it is there
+     */
+    private static class Request {
+        final String photo;
+        final Future<?> future;
+        Bitmap bitmap;
+
+        Request(String photo, Future<?> future) {
+            this.photo = photo;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link PetWriter} makes the inserts, updates and deletes of the app on a background thread,
+ * so the UI never waits for the database, and reports the results back on the main thread.
+ * <p>
+ * There is one writer per process, with one thread, so writes are made one at a time in the
+ * order they were asked for. An update of a URI that already has an update waiting is merged
+ * into the waiting one, so a burst of edits to the same pet makes a single write; every caller
+ * still gets the result. Inserts and deletes are never merged, and updates asked for after one
+ * are never merged into updates asked for before it, so merging can't reorder writes.
+ * <p>
+ * A write the provider rejects is logged and reported as failed (a null URI, or 0 rows).
+ * Callbacks outlive the activity that asked for the write, so they shouldn't touch its views;
+ * show messages with the application context.
+ */
+public class PetWriter {
+
+    private static final String LOG_TAG = PetWriter.class.getSimpleName();
+
+    /**
+     * Receives the result of an insert, on the main thread.
+     */
+    public interface InsertCallback {
+
+        /**
+         * @param newUri URI of the new row, or null if the insert failed
+         */
+        void onInserted(Uri newUri);
+    }
+
+    /**
+     * Receives the result of an update or delete, on the main thread.
+     */
+    public interface WriteCallback {
+
+        /**
+         * @param rows number of rows written, 0 if the write failed
+         */
+        void onWritten(int rows);
+    }
+
+    private static PetWriter sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Updates that haven't started yet and can still be merged into, by URI. Guarded by itself.
+     */
+    private final Map<Uri, PendingUpdate> mPendingUpdates = new HashMap<>();
+
+    private PetWriter(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Returns the writer of this process.
+     */
+    public static synchronized PetWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriter(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Insert a row, see {@link ContentResolver#insert}.
+     *
+     * @param callback receives the URI of the new row, may be null
+     */
+    public void insert(final Uri uri, ContentValues values, final InsertCallback callback) {
+        final ContentValues valuesCopy = new ContentValues(values);
+        stopMerging();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri newUri = null;
+                try {
+                    newUri = mContentResolver.insert(uri, valuesCopy);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to insert into " + uri, e);
+                }
+                deliverInserted(callback, newUri);
+            }
+        });
+    }
+
+    /**
+     * Update the row at the given URI, see {@link ContentResolver#update}. If an update of the
+     * same URI is still waiting, the values are merged into it, the new ones winning.
+     *
+     * @param callback receives the number of rows updated, may be null
+     */
+    public void update(Uri uri, ContentValues values, WriteCallback callback) {
+        synchronized (mPendingUpdates) {
+            PendingUpdate pending = mPendingUpdates.get(uri);
+            if (pending != null) {
+                pending.values.putAll(values);
+                pending.callbacks.add(callback);
+                return;
+            }
+
+            pending = new PendingUpdate(uri, values);
+            pending.callbacks.add(callback);
+            mPendingUpdates.put(uri, pending);
+            mExecutor.execute(pending);
+        }
+    }
+
+    /**
+     * Delete rows, see {@link ContentResolver#delete}.
+     *
+     * @param callback receives the number of rows deleted, may be null
+     */
+    public void delete(final Uri uri, final String selection, final String[] selectionArgs,
+                       final WriteCallback callback) {
+        stopMerging();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rows = 0;
+                try {
+                    rows = mContentResolver.delete(uri, selection, selectionArgs);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to delete " + uri, e);
+                }
+                deliverWritten(callback, rows);
+            }
+        });
+    }
+
+    /**
+     * Bring back the pets of the most recent delete, see {@link PetContract#METHOD_UNDO_DELETE}.
+     * Undo asked for right after a delete is made after it, like any other write.
+     *
+     * @param callback receives the number of pets brought back, may be null
+     */
+    public void undoDelete(final WriteCallback callback) {
+        stopMerging();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rows = 0;
+                try {
+                    Bundle result = mContentResolver.call(PetContract.BASE_CONTENT_URI,
+                            PetContract.METHOD_UNDO_DELETE, null, null);
+                    rows = result.getInt(PetContract.KEY_ROWS_RESTORED);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to undo the last delete", e);
+                }
+                deliverWritten(callback, rows);
+            }
+        });
+    }
+
+    /**
+     * Keep the updates waiting so far from being merged into, so that updates asked for from
+     * now on are made after the write that is about to be queued.
+     */
+    private void stopMerging() {
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.clear();
+        }
+    }
+
+    private void deliverInserted(final InsertCallback callback, final Uri newUri) {
+        if (callback == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onInserted(newUri);
+            }
+        });
+    }
+
+    private void deliverWritten(final WriteCallback callback, final int rows) {
+        if (callback == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWritten(rows);
+            }
+        });
+    }
+
+    /**
+     * An update waiting on the writer thread, with the values and callbacks merged into it.
+     */
+    private class PendingUpdate implements Runnable {
+        final Uri uri;
+
+        /**
+         * Guarded by {@link #mPendingUpdates} until the update starts
+         */
+        final ContentValues values;
+        final List<WriteCallback> callbacks = new ArrayList<>(1);
+
+        PendingUpdate(Uri uri, ContentValues values) {
+            this.uri = uri;
+            this.values = new ContentValues(values);
+        }
+
+        @Override
+        public void run() {
+            synchronized (mPendingUpdates) {
+                // Nothing can be merged in once the update has started
+                if (mPendingUpdates.get(uri) == this) {
+                    mPendingUpdates.remove(uri);
+                }
+            }
+
+            int rows = 0;
+            try {
+                rows = mContentResolver.update(uri, values, null, null);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to update " + uri, e);
+            }
+            for (WriteCallback callback : callbacks) {
+                deliverWritten(callback, rows);
+            }
+        }
+    }
+}
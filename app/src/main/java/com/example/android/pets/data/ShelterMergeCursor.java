@@ -0,0 +1,237 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+/**
+ * {@link ShelterMergeCursor} merges the pets of several shelters, each already sorted by the
+ * same {@link PetFilter}, into one cursor in that order, with the id of the shelter of every
+ * pet as an extra {@link ShelterEntry#COLUMN_SHELTER_ID} column.
+ * <p>
+ * The order of the merged rows is worked out as far as the cursor has been moved, so reading
+ * the first rows only compares those, and moving back only moves the cursor of the shelter the
+ * row comes from. Pets with the same sort key are ordered by id, and then by shelter, like the
+ * queries of a single shelter are.
+ */
+final class ShelterMergeCursor extends AbstractCursor {
+
+    private final Cursor[] mCursors;
+    private final long[] mShelterIds;
+    private final String[] mColumnNames;
+    private final int mShelterIdColumn;
+    private final int mKeyColumn;
+    private final int mIdColumn;
+    private final boolean mNumeric;
+    private final boolean mDescending;
+
+    /**
+     * For every row of the merged cursor, the shelter cursor it comes from and its position
+     * in that cursor. Only the first mMergedCount rows have been worked out.
+     */
+    private final int[] mRowCursors;
+    private final int[] mRowPositions;
+    private int mMergedCount;
+
+    /**
+     * The position in each shelter cursor of its first row that hasn't been merged yet
+     */
+    private final int[] mNextPositions;
+
+    /**
+     * The shelter cursor of the current row
+     */
+    private int mCurrent;
+
+    /**
+     * Merge the given cursors, which all have the same columns, the sort column of the filter
+     * and {@link PetEntry#_ID} among them. Only the first rows, up to the given limit, are
+     * kept. The cursors are closed with this one.
+     *
+     * @param cursors    the pets of each shelter, sorted by the filter
+     * @param shelterIds the id of the shelter of each cursor
+     * @param filter     the filter the cursors are sorted by
+     * @param limit      the most rows to keep
+     */
+    ShelterMergeCursor(Cursor[] cursors, long[] shelterIds, PetFilter filter, int limit) {
+        mCursors = cursors;
+        mShelterIds = shelterIds;
+
+        String[] columns = cursors[0].getColumnNames();
+        mColumnNames = new String[columns.length + 1];
+        System.arraycopy(columns, 0, mColumnNames, 0, columns.length);
+        mShelterIdColumn = columns.length;
+        mColumnNames[mShelterIdColumn] = ShelterEntry.COLUMN_SHELTER_ID;
+
+        mKeyColumn = cursors[0].getColumnIndexOrThrow(filter.getSort());
+        mIdColumn = cursors[0].getColumnIndexOrThrow(PetEntry._ID);
+        mNumeric = PetEntry.SORT_WEIGHT.equals(filter.getSort());
+        mDescending = filter.isDescending();
+
+        // The shelter cursors have already been counted, and hold at most the limit each
+        int count = 0;
+        for (Cursor cursor : cursors) {
+            count += cursor.getCount();
+        }
+        count = Math.min(count, limit);
+        mRowCursors = new int[count];
+        mRowPositions = new int[count];
+        mNextPositions = new int[cursors.length];
+    }
+
+    /**
+     * Work out the order of the merged rows up to the given position by taking the lowest
+     * (or highest) of the first unmerged rows of the shelter cursors over and over.
+     */
+    private void mergeTo(int position) {
+        for (; mMergedCount <= position; mMergedCount++) {
+            int next = -1;
+            for (int i = 0; i < mCursors.length; i++) {
+                if (!mCursors[i].moveToPosition(mNextPositions[i])) {
+                    continue;
+                }
+                if (next == -1) {
+                    next = i;
+                    continue;
+                }
+                int comparison = compare(mCursors[i], mCursors[next], mKeyColumn, mIdColumn,
+                        mNumeric);
+                if (mDescending ? comparison > 0 : comparison < 0) {
+                    next = i;
+                }
+            }
+
+            mRowCursors[mMergedCount] = next;
+            mRowPositions[mMergedCount] = mNextPositions[next];
+            mNextPositions[next]++;
+        }
+    }
+
+    /**
+     * Compare the current rows of two cursors by sort key and then id. Names are compared the
+     * way SQLite's NOCASE collation does, which only folds ASCII letters, so the merge agrees
+     * with the order each shelter was sorted in.
+     */
+    private static int compare(Cursor a, Cursor b, int keyColumn, int idColumn,
+                               boolean numeric) {
+        int comparison;
+        if (numeric) {
+            comparison = compareLongs(a.getLong(keyColumn), b.getLong(keyColumn));
+        } else {
+            comparison = compareNoCase(a.getString(keyColumn), b.getString(keyColumn));
+        }
+        if (comparison != 0) {
+            return comparison;
+        }
+        return compareLongs(a.getLong(idColumn), b.getLong(idColumn));
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static int compareNoCase(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char charA = a.charAt(i);
+            char charB = b.charAt(i);
+            if (charA >= 'A' && charA <= 'Z') {
+                charA += 'a' - 'A';
+            }
+            if (charB >= 'A' && charB <= 'Z') {
+                charB += 'a' - 'A';
+            }
+            if (charA != charB) {
+                return charA - charB;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        mergeTo(newPosition);
+        mCurrent = mRowCursors[newPosition];
+        return mCursors[mCurrent].moveToPosition(mRowPositions[newPosition]);
+    }
+
+    @Override
+    public int getCount() {
+        return mRowCursors.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        if (column == mShelterIdColumn) {
+            return String.valueOf(mShelterIds[mCurrent]);
+        }
+        return mCursors[mCurrent].getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        if (column == mShelterIdColumn) {
+            return mShelterIds[mCurrent];
+        }
+        return mCursors[mCurrent].getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        if (column == mShelterIdColumn) {
+            return mShelterIds[mCurrent];
+        }
+        return mCursors[mCurrent].getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        if (column == mShelterIdColumn) {
+            return super.getBlob(column);
+        }
+        return mCursors[mCurrent].getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        if (column == mShelterIdColumn) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return mCursors[mCurrent].getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return column != mShelterIdColumn && mCursors[mCurrent].isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Cursor cursor : mCursors) {
+            cursor.close();
+        }
+    }
+}
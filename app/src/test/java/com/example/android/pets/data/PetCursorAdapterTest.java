@@ -0,0 +1,120 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.widget.FrameLayout;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Binds rows loaded by a {@link PetPager} through the real adapter and counts the bytes the
+ * binding thread allocates.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PetCursorAdapterTest {
+
+    private static final int PET_COUNT = 40;
+    private static final int PAGE_SIZE = 50;
+    private static final int BIND_COUNT = 10000;
+
+    private Context mContext;
+    private PetPager mPager;
+    private PetPager.Rows mRows;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        ContentResolver resolver = mContext.getContentResolver();
+
+        ContentValues[] pets = new ContentValues[PET_COUNT];
+        for (int i = 0; i < PET_COUNT; i++) {
+            pets[i] = new ContentValues();
+            pets[i].put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+            // Every other pet has no breed, which binds the "Unknown breed" text instead
+            pets[i].put(PetEntry.COLUMN_PET_BREED, i % 2 == 0 ? "Breed " + i : null);
+            pets[i].put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE);
+            pets[i].put(PetEntry.COLUMN_PET_WEIGHT, i);
+        }
+        resolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+
+        mPager = new PetPager(resolver, PAGE_SIZE, PetEntry.PROJECTION_SUMMARY,
+                new PetPager.Callback() {
+                    @Override
+                    public void onPetsLoaded(PetPager.Rows pets) {
+                        mRows = pets;
+                    }
+                });
+        mPager.start();
+        awaitRows();
+    }
+
+    @After
+    public void tearDown() {
+        mPager.stop();
+    }
+
+    @Test
+    public void onBindViewHolder_doesNotAllocate() {
+        PetCursorAdapter adapter = new PetCursorAdapter(mContext, null);
+        adapter.swapRows(mRows);
+        assertEquals(PET_COUNT, adapter.getItemCount());
+        PetCursorAdapter.ViewHolder holder =
+                adapter.onCreateViewHolder(new FrameLayout(mContext), 0);
+
+        // The first binds grow the item's buffers and fill the cursor window
+        for (int position = 0; position < PET_COUNT; position++) {
+            adapter.onBindViewHolder(holder, position);
+        }
+
+        long before = getAllocatedBytes();
+        for (int i = 0; i < BIND_COUNT; i++) {
+            adapter.onBindViewHolder(holder, i % PET_COUNT);
+        }
+        long allocated = getAllocatedBytes() - before;
+
+        assertEquals("Bytes allocated per bind", 0, allocated / BIND_COUNT);
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated so far.
+     */
+    private static long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Run the main looper until the pager has delivered the first page.
+     */
+    private void awaitRows() {
+        for (int i = 0; i < 500 && mRows == null; i++) {
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        assertNotNull(mRows);
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.ChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.StatsEntry;
+import com.example.android.pets.data.PetContract.SyncStateEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a version 1 database one migration at a time, checking the schema and the pets
+ * after every step, and compares the result with a database created from scratch and with the
+ * exported schema the benchmarks are built on. The databases of shelters other than the default
+ * one are upgraded too.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class PetDbHelperTest {
+
+    private static final String UPGRADED_DATABASE_NAME = "upgraded.db";
+
+    /**
+     * A shelter other than the default one, whose database doesn't log changes
+     */
+    private static final long OTHER_SHELTER_ID = 7;
+
+    /**
+     * The exported schema, from app/schemas
+     */
+    private static final String SCHEMA_RESOURCE = "/shelter.sql";
+
+    /**
+     * The last statement of the exported schema, followed by its version
+     */
+    private static final String USER_VERSION = "PRAGMA user_version = ";
+
+    /**
+     * The pets of the version 1 database: name, breed, gender and weight. The two tabbies only
+     * differ in case, and end up sharing the spelling of the first one in the breed dictionary.
+     */
+    private static final Object[][] PETS = {
+            {"Tommy", "Pomeranian", PetEntry.GENDER_MALE, 4},
+            {"Garfield", "Tabby", PetEntry.GENDER_MALE, 14},
+            {"Nala", "tabby", PetEntry.GENDER_FEMALE, 6},
+            {"Rex", null, PetEntry.GENDER_UNKNOWN, 0},
+    };
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mDb = mContext.openOrCreateDatabase(UPGRADED_DATABASE_NAME, Context.MODE_PRIVATE, null);
+
+        // The schema of the first release, before there were any migrations
+        mDb.execSQL("CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL, breed TEXT, gender INTEGER NOT NULL, "
+                + "weight INTEGER NOT NULL DEFAULT 0);");
+        for (Object[] pet : PETS) {
+            mDb.execSQL("INSERT INTO pets (name, breed, gender, weight) VALUES (?, ?, ?, ?)", pet);
+        }
+        mDb.setVersion(1);
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+        mContext.deleteDatabase(UPGRADED_DATABASE_NAME);
+    }
+
+    @Test
+    public void migrate_fromVersion1_keepsPetsAtEveryStep() {
+        for (int version = 2; version <= PetDbHelper.DATABASE_VERSION; version++) {
+            PetDbHelper.migrate(mDb, version - 1, version, true);
+            mDb.setVersion(version);
+
+            assertSchema(version);
+            assertPets(version);
+        }
+    }
+
+    @Test
+    public void migrate_fromVersion1_matchesFreshDatabase() {
+        PetDbHelper.migrate(mDb, 1, PetDbHelper.DATABASE_VERSION, true);
+
+        PetDbHelper helper = new PetDbHelper(mContext);
+        try {
+            assertEquals(describeSchema(helper.getReadableDatabase()), describeSchema(mDb));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void migrate_otherShelter_stopsLoggingChanges() {
+        PetDbHelper.migrate(mDb, 1, PetDbHelper.DATABASE_VERSION, false);
+
+        assertFalse(exists("trigger", "pets_changes_insert"));
+        assertFalse(exists("trigger", "pets_changes_update"));
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM " + ChangeEntry.TABLE_NAME));
+        mDb.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET " + PetEntry.COLUMN_PET_WEIGHT
+                + " = " + PetEntry.COLUMN_PET_WEIGHT + " + 1;");
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM " + ChangeEntry.TABLE_NAME));
+
+        PetDbHelper helper = new PetDbHelper(mContext, OTHER_SHELTER_ID);
+        try {
+            assertEquals(describeSchema(helper.getReadableDatabase()), describeSchema(mDb));
+        } finally {
+            helper.close();
+            mContext.deleteDatabase(PetDbHelper.getShelterDatabaseName(OTHER_SHELTER_ID));
+        }
+    }
+
+    @Test
+    public void freshDatabase_hasPageSize() {
+        PetDbHelper helper = new PetDbHelper(mContext, 8192, 1024,
+                PetDbHelper.SYNCHRONOUS_NORMAL);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(8192, queryLong(db, "PRAGMA page_size"));
+            assertEquals("wal", queryString(db, "PRAGMA journal_mode"));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void freshDatabase_usesIncrementalVacuum() {
+        PetDbHelper helper = new PetDbHelper(mContext);
+        try {
+            // Otherwise the first compaction would rewrite the whole file with a full VACUUM
+            assertEquals(2, queryLong(helper.getWritableDatabase(), "PRAGMA auto_vacuum"));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void exportedSchema_matchesFreshDatabase() throws IOException {
+        PetDbHelper helper = new PetDbHelper(mContext);
+        try {
+            SQLiteDatabase db = helper.getReadableDatabase();
+            List<String> expected = readExportedSchema(PetDbHelper.supportsPartialIndexes(db));
+            List<String> actual = new ArrayList<>();
+            Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE sql IS NOT NULL"
+                    + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'"
+                    + " AND NOT (type = 'table' AND name LIKE '" + PetEntry.FTS_TABLE_NAME
+                    + "_%')", null);
+            try {
+                while (cursor.moveToNext()) {
+                    actual.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            Collections.sort(actual);
+            assertEquals("app/schemas" + SCHEMA_RESOURCE + " is out of date", expected, actual);
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Check the tables, columns, indexes and triggers each version adds or drops.
+     */
+    private void assertSchema(int version) {
+        boolean partialIndexes = PetDbHelper.supportsPartialIndexes(mDb);
+        assertEquals(version >= 2 && (version < 12 || !partialIndexes),
+                exists("index", "pets_name_index"));
+        assertEquals(version >= 2 && version < 7, exists("index", "pets_breed_index"));
+        assertEquals(version >= 2 && version < 7, exists("index", "pets_gender_weight_index"));
+
+        assertEquals(version >= 3, exists("table", PetEntry.FTS_TABLE_NAME));
+        assertEquals(version >= 3, exists("trigger", "pets_fts_insert"));
+        assertEquals(version >= 3, exists("trigger", "pets_fts_update"));
+        assertEquals(version >= 3, exists("trigger", "pets_fts_delete"));
+
+        assertEquals(version >= 4, hasColumn(PetEntry.TABLE_NAME, PetEntry.COLUMN_PET_PHOTO));
+
+        assertEquals(version >= 5, exists("table", PetContract.ImportEntry.TABLE_NAME));
+
+        assertEquals(version >= 6,
+                hasColumn(PetEntry.TABLE_NAME, PetEntry.COLUMN_PET_DELETED_AT));
+        assertEquals(version >= 6, exists("index", "pets_deleted_at_index"));
+
+        assertEquals(version >= 7, exists("index", "pets_live_weight_index"));
+        assertEquals(version >= 7, exists("index", "pets_live_gender_name_index"));
+        assertEquals(version >= 7, exists("index", "pets_live_gender_weight_index"));
+        assertEquals(version >= 7 && version < 10, exists("index", "pets_live_breed_name_index"));
+
+        assertEquals(version >= 8, exists("table", StatsEntry.GENDER_TABLE_NAME));
+        assertEquals(version >= 8, exists("table", StatsEntry.BREED_TABLE_NAME));
+        assertEquals(version >= 8, exists("trigger", "pets_stats_insert"));
+        assertEquals(version >= 8, exists("trigger", "pets_stats_update_old"));
+
+        assertEquals(version >= 9, hasColumn(PetEntry.TABLE_NAME, PetEntry.COLUMN_PET_SYNC_ID));
+        assertEquals(version >= 9, exists("index", "pets_sync_id_index"));
+        assertEquals(version >= 9, exists("table", ChangeEntry.TABLE_NAME));
+        assertEquals(version >= 9, exists("view", ChangeEntry.VIEW_NAME));
+        assertEquals(version >= 9, exists("trigger", "pets_changes_insert"));
+        assertEquals(version >= 9, exists("table", SyncStateEntry.TABLE_NAME));
+
+        assertEquals(version >= 10, exists("table", BreedEntry.TABLE_NAME));
+        assertEquals(version >= 10,
+                hasColumn(PetEntry.TABLE_NAME, PetEntry.COLUMN_PET_BREED_ID));
+        assertEquals(version >= 10, exists("index", "pets_live_breed_id_name_index"));
+    }
+
+    /**
+     * Check that every pet is still there, and that the data each version derives from them
+     * (the full-text index, the statistics, the sync ids and the breed dictionary) agrees.
+     */
+    private void assertPets(int version) {
+        String breed = version >= 10
+                ? "(SELECT " + BreedEntry.COLUMN_BREED_NAME + " FROM " + BreedEntry.TABLE_NAME
+                + " WHERE " + BreedEntry._ID + " = " + PetEntry.COLUMN_PET_BREED_ID + ")"
+                : PetEntry.COLUMN_PET_BREED;
+        Cursor cursor = mDb.rawQuery("SELECT " + PetEntry.COLUMN_PET_NAME + ", " + breed + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + " FROM "
+                + PetEntry.TABLE_NAME + " ORDER BY " + PetEntry._ID, null);
+        try {
+            assertEquals(PETS.length, cursor.getCount());
+            for (Object[] pet : PETS) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(pet[0], cursor.getString(0));
+                if (pet[1] == null) {
+                    assertNull(cursor.getString(1));
+                } else if (version >= 10) {
+                    assertTrue(((String) pet[1]).equalsIgnoreCase(cursor.getString(1)));
+                } else {
+                    assertEquals(pet[1], cursor.getString(1));
+                }
+                assertEquals(pet[2], cursor.getInt(2));
+                assertEquals(pet[3], cursor.getInt(3));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (version >= 3) {
+            assertEquals(2, queryLong("SELECT COUNT(*) FROM " + PetEntry.FTS_TABLE_NAME
+                    + " WHERE " + PetEntry.FTS_TABLE_NAME + " MATCH 'tabby'"));
+        }
+        if (version >= 8) {
+            assertEquals(PETS.length, queryLong("SELECT SUM(" + StatsEntry.COLUMN_PET_COUNT
+                    + ") FROM " + StatsEntry.GENDER_TABLE_NAME));
+            assertEquals(PETS.length, queryLong("SELECT SUM(" + StatsEntry.COLUMN_PET_COUNT
+                    + ") FROM " + StatsEntry.BREED_TABLE_NAME));
+        }
+        if (version >= 9) {
+            assertEquals(PETS.length, queryLong("SELECT COUNT(DISTINCT "
+                    + PetEntry.COLUMN_PET_SYNC_ID + ") FROM " + PetEntry.TABLE_NAME));
+            assertEquals(PETS.length, queryLong("SELECT COUNT(*) FROM " + ChangeEntry.VIEW_NAME));
+            assertEquals(1, queryLong("SELECT COUNT(*) FROM " + SyncStateEntry.TABLE_NAME));
+        }
+        if (version >= 10) {
+            assertEquals(2, queryLong("SELECT COUNT(*) FROM " + BreedEntry.TABLE_NAME));
+            assertEquals(0, queryLong("SELECT COUNT(*) FROM " + PetEntry.TABLE_NAME
+                    + " WHERE " + PetEntry.COLUMN_PET_BREED + " IS NOT NULL"));
+        }
+    }
+
+    private boolean exists(String type, String name) {
+        return queryLong("SELECT COUNT(*) FROM sqlite_master WHERE type = '" + type
+                + "' AND name = '" + name + "'") == 1;
+    }
+
+    private boolean hasColumn(String table, String column) {
+        Cursor cursor = mDb.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameIndex))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long queryLong(String sql) {
+        return queryLong(mDb, sql);
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String queryString(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the statements of the exported schema in order, checking its version. Without
+     * partial indexes the indexes lose their WHERE clause, and the name index of version 2 is
+     * kept instead of the index of the live names, as in the migrations of version 6, 7 and 12.
+     */
+    private static List<String> readExportedSchema(boolean partialIndexes) throws IOException {
+        InputStream in = PetDbHelperTest.class.getResourceAsStream(SCHEMA_RESOURCE);
+        assertNotNull(in);
+        List<String> schema = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("--")) {
+                    continue;
+                }
+                String sql = line.substring(0, line.length() - 1);
+                if (sql.startsWith(USER_VERSION)) {
+                    assertEquals(String.valueOf(PetDbHelper.DATABASE_VERSION),
+                            sql.substring(USER_VERSION.length()));
+                    continue;
+                }
+                if (!partialIndexes && sql.startsWith("CREATE INDEX")) {
+                    if (sql.startsWith("CREATE INDEX pets_live_name_index ")) {
+                        sql = "CREATE INDEX pets_name_index ON pets (name COLLATE NOCASE)";
+                    }
+                    int where = sql.indexOf(" WHERE ");
+                    if (where >= 0) {
+                        sql = sql.substring(0, where);
+                    }
+                }
+                schema.add(sql);
+            }
+        } finally {
+            reader.close();
+        }
+        Collections.sort(schema);
+        return schema;
+    }
+
+    /**
+     * Returns the type, name and SQL of every object of the schema, in name order.
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'"
+                + " ORDER BY name", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + ": "
+                        + cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertFalse(schema.isEmpty());
+        return schema;
+    }
+}
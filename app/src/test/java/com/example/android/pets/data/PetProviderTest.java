@@ -0,0 +1,287 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.HandlerThread;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Queries single pets of the default shelter, whose rows come from the pet cache, with
+ * columns the cache keeps and columns it doesn't, undoes deletes and applies batches.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PetProviderTest {
+
+    private ContentResolver mResolver;
+    private Uri mPetUri;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Garfield");
+        values.put(PetEntry.COLUMN_PET_BREED, "Tabby");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 14);
+        mPetUri = mResolver.insert(PetEntry.CONTENT_URI, values);
+        assertNotNull(mPetUri);
+    }
+
+    @Test
+    public void queryPet_cachedColumns() {
+        // The second query is answered by the cache
+        for (int i = 0; i < 2; i++) {
+            Cursor cursor = mResolver.query(mPetUri, new String[]{
+                    PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED}, null, null,
+                    null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(ContentUris.parseId(mPetUri), cursor.getLong(0));
+                assertEquals("Garfield", cursor.getString(1));
+                assertEquals("Tabby", cursor.getString(2));
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    @Test
+    public void queryPet_syncColumns() {
+        // Once before the pet is in the cache and once after
+        for (int i = 0; i < 2; i++) {
+            Cursor cursor = mResolver.query(mPetUri, new String[]{PetEntry.COLUMN_PET_NAME,
+                    PetEntry.COLUMN_PET_SYNC_ID, PetEntry.COLUMN_PET_SYNC_VERSION}, null, null,
+                    null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("Garfield", cursor.getString(0));
+                assertFalse(cursor.isNull(1));
+                assertEquals(0, cursor.getLong(2));
+            } finally {
+                cursor.close();
+            }
+            mResolver.query(mPetUri, PetEntry.PROJECTION_DEFAULT, null, null, null).close();
+        }
+    }
+
+    @Test
+    public void queryPet_breedId() {
+        Cursor breeds = mResolver.query(BreedEntry.CONTENT_URI,
+                new String[]{BreedEntry._ID, BreedEntry.COLUMN_BREED_NAME}, null, null, null);
+        long breedId;
+        try {
+            assertTrue(breeds.moveToFirst());
+            assertEquals("Tabby", breeds.getString(1));
+            breedId = breeds.getLong(0);
+        } finally {
+            breeds.close();
+        }
+
+        // Once before the pet is in the cache and once after
+        for (int i = 0; i < 2; i++) {
+            Cursor cursor = mResolver.query(mPetUri, new String[]{PetEntry.COLUMN_PET_BREED,
+                    PetEntry.COLUMN_PET_BREED_ID}, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("Tabby", cursor.getString(0));
+                assertEquals(breedId, cursor.getLong(1));
+            } finally {
+                cursor.close();
+            }
+            mResolver.query(mPetUri, PetEntry.PROJECTION_DEFAULT, null, null, null).close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queryPet_count() {
+        mResolver.query(mPetUri, new String[]{PetEntry._COUNT}, null, null, null);
+    }
+
+    @Test
+    public void undoDelete_leavesSyncAdapterDeletesAlone() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Nala");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 6);
+        Uri nalaUri = mResolver.insert(PetEntry.CONTENT_URI, values);
+        assertNotNull(nalaUri);
+
+        assertEquals(1, mResolver.delete(mPetUri, null, null));
+
+        // A sync then deletes the other pet, as deleted on another device
+        ContentValues tombstone = new ContentValues();
+        tombstone.put(PetEntry.COLUMN_PET_DELETED_AT, System.currentTimeMillis());
+        assertEquals(1, mResolver.update(PetContract.asSyncAdapter(PetEntry.CONTENT_URI),
+                tombstone, PetEntry._ID + " = ?",
+                new String[]{String.valueOf(ContentUris.parseId(nalaUri))}));
+
+        assertEquals(1, undoDelete());
+        assertEquals(1, countPets(mPetUri));
+        assertEquals(0, countPets(nalaUri));
+
+        // Nothing left to undo
+        assertEquals(0, undoDelete());
+    }
+
+    @Test
+    public void insertPet_failed_leavesNoBreed() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Nala");
+        values.put(PetEntry.COLUMN_PET_BREED, "Sphynx");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 6);
+        // A column the table doesn't have, so the insert fails
+        values.put("color", "Black");
+
+        assertNull(mResolver.insert(PetEntry.CONTENT_URI, values));
+
+        Cursor breeds = mResolver.query(BreedEntry.CONTENT_URI,
+                new String[]{BreedEntry.COLUMN_BREED_NAME}, null, null, null);
+        assertNotNull(breeds);
+        try {
+            assertEquals(1, breeds.getCount());
+            assertTrue(breeds.moveToFirst());
+            assertEquals("Tabby", breeds.getString(0));
+        } finally {
+            breeds.close();
+        }
+    }
+
+    @Test
+    public void applyBatch_backReferences() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(newInsert("Nala"));
+        operations.add(ContentProviderOperation.newUpdate(PetEntry.CONTENT_URI)
+                .withValue(PetEntry.COLUMN_PET_WEIGHT, 7)
+                .withSelection(PetEntry._ID + " = ?", new String[1])
+                .withSelectionBackReference(0, 0)
+                .build());
+
+        ContentProviderResult[] results = mResolver.applyBatch(PetContract.CONTENT_AUTHORITY,
+                operations);
+
+        assertEquals(1, (int) results[1].count);
+        Cursor cursor = mResolver.query(results[0].uri,
+                new String[]{PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_WEIGHT}, null, null,
+                null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Nala", cursor.getString(0));
+            assertEquals(7, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void applyBatch_rollsBackOnFailure() throws Exception {
+        List<ShadowContentResolver.NotifiedUri> notified = flushNotifications();
+        int notifiedBefore = notified.size();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(newInsert("Nala"));
+        // A pet without a name
+        operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                .withValue(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE)
+                .withValue(PetEntry.COLUMN_PET_WEIGHT, 6)
+                .build());
+        try {
+            mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            fail("A pet without a name was inserted");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(1, countPets(PetEntry.CONTENT_URI));
+        assertEquals(notifiedBefore, flushNotifications().size());
+    }
+
+    @Test
+    public void applyBatch_notifiesOnceOnCommit() throws Exception {
+        List<ShadowContentResolver.NotifiedUri> notified = flushNotifications();
+        int notifiedBefore = notified.size();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(newInsert("Nala"));
+        operations.add(newInsert("Simba"));
+        operations.add(ContentProviderOperation.newUpdate(PetEntry.CONTENT_URI)
+                .withValue(PetEntry.COLUMN_PET_WEIGHT, 7)
+                .build());
+        mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+
+        // The collection's notification covers the two new pets
+        notified = flushNotifications();
+        assertEquals(notifiedBefore + 1, notified.size());
+        assertEquals(PetEntry.CONTENT_URI, notified.get(notifiedBefore).uri);
+    }
+
+    private static ContentProviderOperation newInsert(String name) {
+        return ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                .withValue(PetEntry.COLUMN_PET_NAME, name)
+                .withValue(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE)
+                .withValue(PetEntry.COLUMN_PET_WEIGHT, 6)
+                .build();
+    }
+
+    /**
+     * Runs the change notifier's thread, which Robolectric doesn't, and returns every
+     * notification sent so far.
+     */
+    private List<ShadowContentResolver.NotifiedUri> flushNotifications() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread instanceof HandlerThread
+                    && thread.getName().equals(PetChangeNotifier.class.getSimpleName())) {
+                Shadows.shadowOf(((HandlerThread) thread).getLooper()).runToEndOfTasks();
+            }
+        }
+        return Shadows.shadowOf(mResolver).getNotifiedUris();
+    }
+
+    private int undoDelete() {
+        Bundle result = mResolver.call(PetContract.BASE_CONTENT_URI,
+                PetContract.METHOD_UNDO_DELETE, null, null);
+        assertNotNull(result);
+        return result.getInt(PetContract.KEY_ROWS_RESTORED);
+    }
+
+    private int countPets(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[]{PetEntry._ID}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.ChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.SyncStateEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Syncs the pets of the provider with an {@link InMemoryPetSyncServer}, checking what ends up
+ * on each side and that the change log is emptied once the server has the changes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PetSyncEngineTest {
+
+    private ContentResolver mResolver;
+    private InMemoryPetSyncServer mServer;
+    private PetSyncEngine mEngine;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mServer = new InMemoryPetSyncServer();
+        mEngine = new PetSyncEngine(mResolver, mServer);
+    }
+
+    @Test
+    public void sync_pushesLocalPetsAndEmptiesTheChangeLog() throws IOException {
+        // More than a batch, so the change log is emptied a batch at a time
+        int count = PetSyncEngine.BATCH_SIZE + 5;
+        for (int i = 0; i < count; i++) {
+            insertPet("Pet " + i);
+        }
+        assertEquals(count, countPendingChanges());
+
+        PetSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(count, result.getPushed());
+        assertEquals(0, result.getConflicts());
+        assertEquals(count, mServer.size());
+        assertEquals(0, countPendingChanges());
+
+        // Pushing moved every pet onto its server version, so nothing comes back
+        result = mEngine.sync();
+        assertEquals(0, result.getPulled());
+        assertEquals(0, result.getPushed());
+    }
+
+    @Test
+    public void sync_pushesDeletes() throws IOException {
+        Uri petUri = insertPet("Garfield");
+        mEngine.sync();
+        String syncId = querySyncId(petUri);
+
+        assertEquals(1, mResolver.delete(petUri, null, null));
+        assertEquals(1, countPendingChanges());
+        assertEquals(1, mEngine.sync().getPushed());
+
+        assertTrue(findRecord(syncId).isDeleted());
+        assertEquals(0, countPendingChanges());
+    }
+
+    @Test
+    public void sync_pullsServerRecords() throws IOException {
+        mServer.push(Collections.singletonList(new PetChange("remote-1", 0, false,
+                "Nala", "Tabby", PetEntry.GENDER_FEMALE, 6)));
+
+        PetSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.getPulled());
+        assertEquals(0, result.getPushed());
+        assertEquals(0, countPendingChanges());
+        assertEquals(1, queryLong(SyncStateEntry.CONTENT_URI,
+                SyncStateEntry.COLUMN_PULLED_VERSION));
+
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[]{
+                PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_SYNC_VERSION}, PetEntry.COLUMN_PET_SYNC_ID + " = ?",
+                new String[]{"remote-1"}, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Nala", cursor.getString(0));
+            assertEquals("Tabby", cursor.getString(1));
+            assertEquals(1, cursor.getLong(2));
+        } finally {
+            cursor.close();
+        }
+
+        // Nothing new on the server since
+        assertEquals(0, mEngine.sync().getPulled());
+    }
+
+    @Test
+    public void sync_conflict_serverWins() throws IOException {
+        Uri petUri = insertPet("Garfield");
+        mEngine.sync();
+        String syncId = querySyncId(petUri);
+
+        // Another device renames the pet on the server, and this one renames it too
+        PetChange record = findRecord(syncId);
+        mServer.push(Collections.singletonList(new PetChange(syncId,
+                record.getVersion(), false, "Server name", record.getBreed(),
+                record.getGender(), record.getWeight())));
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Local name");
+        assertEquals(1, mResolver.update(petUri, values, null, null));
+
+        PetSyncEngine.Result result = mEngine.sync();
+
+        assertEquals(1, result.getConflicts());
+        assertEquals(0, result.getPushed());
+        assertEquals(0, countPendingChanges());
+        assertEquals("Server name", findRecord(syncId).getName());
+
+        Cursor cursor = mResolver.query(petUri, new String[]{PetEntry.COLUMN_PET_NAME}, null,
+                null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Server name", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Uri insertPet(String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 4);
+        Uri uri = mResolver.insert(PetEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return uri;
+    }
+
+    private String querySyncId(Uri petUri) {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI,
+                new String[]{PetEntry.COLUMN_PET_SYNC_ID}, PetEntry._ID + " = ?",
+                new String[]{String.valueOf(ContentUris.parseId(petUri))}, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertFalse(cursor.isNull(0));
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the server's record of the pet with the given sync id.
+     */
+    private PetChange findRecord(String syncId) {
+        List<PetChange> records = mServer.pull(0, Integer.MAX_VALUE);
+        for (PetChange record : records) {
+            if (record.getSyncId().equals(syncId)) {
+                return record;
+            }
+        }
+        throw new AssertionError("No record of " + syncId);
+    }
+
+    private int countPendingChanges() {
+        Cursor cursor = mResolver.query(ChangeEntry.CONTENT_URI,
+                new String[]{ChangeEntry._ID}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long queryLong(Uri uri, String column) {
+        Cursor cursor = mResolver.query(uri, new String[]{column}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.android.pets.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link Baseline} keeps the results of a run in a JSON file, to compare later runs with.
+ * <p>
+ * The file has one benchmark object per line. It is only ever read back by {@link #read}, which
+ * relies on that layout instead of being a general JSON parser.
+ */
+class Baseline {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Pattern NAME = Pattern.compile("\"name\"\\s*:\\s*\"([^\"]*)\"");
+
+    private final Map<String, BenchmarkResult> mResults;
+
+    private Baseline(Map<String, BenchmarkResult> results) {
+        mResults = results;
+    }
+
+    /**
+     * Returns the result of the named benchmark, or null if the baseline doesn't have it.
+     */
+    BenchmarkResult get(String name) {
+        return mResults.get(name);
+    }
+
+    static void write(File file, List<BenchmarkResult> results) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            writer.write("{\n  \"schemaVersion\": " + ShelterDatabase.getSchemaVersion() + ",\n");
+            writer.write("  \"benchmarks\": [\n");
+            for (int i = 0; i < results.size(); i++) {
+                BenchmarkResult result = results.get(i);
+                writer.write(String.format(Locale.US, "    {\"name\": \"%s\", \"operations\": %d,"
+                                + " \"operationsPerSecond\": %.3f, \"itemsPerSecond\": %.3f,"
+                                + " \"p50Nanos\": %d, \"p99Nanos\": %d,"
+                                + " \"bytesPerOperation\": %d, \"bytesPerSecond\": %.3f}%s\n",
+                        result.name, result.operations, result.operationsPerSecond,
+                        result.itemsPerSecond, result.p50Nanos, result.p99Nanos,
+                        result.bytesPerOperation, result.bytesPerSecond,
+                        i < results.size() - 1 ? "," : ""));
+            }
+            writer.write("  ]\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    static Baseline read(File file) throws IOException {
+        Map<String, BenchmarkResult> results = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher name = NAME.matcher(line);
+                if (!name.find()) {
+                    continue;
+                }
+                results.put(name.group(1), new BenchmarkResult(name.group(1),
+                        (long) number(line, "operations"),
+                        number(line, "operationsPerSecond"),
+                        number(line, "itemsPerSecond"),
+                        (long) number(line, "p50Nanos"),
+                        (long) number(line, "p99Nanos"),
+                        (long) number(line, "bytesPerOperation"),
+                        number(line, "bytesPerSecond")));
+            }
+        } finally {
+            reader.close();
+        }
+        return new Baseline(results);
+    }
+
+    private static double number(String line, String key) throws IOException {
+        Matcher matcher = Pattern.compile("\"" + key + "\"\\s*:\\s*([-0-9.eE]+)").matcher(line);
+        if (!matcher.find()) {
+            throw new IOException("No " + key + " in baseline line " + line);
+        }
+        return Double.parseDouble(matcher.group(1));
+    }
+
+    /**
+     * Compare the results with the baseline. A benchmark regressed if its throughput dropped,
+     * or its allocations grew, by more than the given fraction. Returns the regressions found,
+     * described for the report.
+     */
+    List<String> compare(List<BenchmarkResult> results, double threshold) {
+        List<String> regressions = new ArrayList<>();
+        for (BenchmarkResult result : results) {
+            BenchmarkResult base = mResults.get(result.name);
+            if (base == null) {
+                continue;
+            }
+
+            if (result.operationsPerSecond < base.operationsPerSecond * (1 - threshold)) {
+                regressions.add(String.format(Locale.US, "%s: %.1f ops/s, baseline %.1f (%+.1f%%)",
+                        result.name, result.operationsPerSecond, base.operationsPerSecond,
+                        change(base.operationsPerSecond, result.operationsPerSecond)));
+            }
+
+            // A few bytes of noise on operations that hardly allocate aren't a regression
+            long allowedBytes = (long) (base.bytesPerOperation * (1 + threshold)) + 64;
+            if (result.bytesPerOperation > allowedBytes) {
+                regressions.add(String.format(Locale.US, "%s: %d B/op, baseline %d (%+.1f%%)",
+                        result.name, result.bytesPerOperation, base.bytesPerOperation,
+                        change(base.bytesPerOperation, result.bytesPerOperation)));
+            }
+        }
+        return regressions;
+    }
+
+    private static double change(double base, double value) {
+        return base == 0 ? 0 : (value - base) / base * 100;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.pets.benchmark;
+
+import java.util.Locale;
+
+/**
+ * What one benchmark measured.
+ */
+class BenchmarkResult {
+
+    /**
+     * Name of the benchmark, unique within a run, such as "scan/100000"
+     */
+    final String name;
+
+    /**
+     * Number of operations measured
+     */
+    final long operations;
+
+    final double operationsPerSecond;
+
+    /**
+     * Items (rows, pets) handled per second, for operations that handle more than one
+     */
+    final double itemsPerSecond;
+
+    /**
+     * Median and 99th percentile time of one operation, in nanoseconds
+     */
+    final long p50Nanos;
+    final long p99Nanos;
+
+    /**
+     * Bytes allocated on the Java heap per operation, and per second
+     */
+    final long bytesPerOperation;
+    final double bytesPerSecond;
+
+    BenchmarkResult(String name, long operations, double operationsPerSecond,
+                    double itemsPerSecond, long p50Nanos, long p99Nanos,
+                    long bytesPerOperation, double bytesPerSecond) {
+        this.name = name;
+        this.operations = operations;
+        this.operationsPerSecond = operationsPerSecond;
+        this.itemsPerSecond = itemsPerSecond;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.bytesPerOperation = bytesPerOperation;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    static String formatHeader() {
+        return String.format(Locale.US, "%-28s %10s %12s %12s %12s %12s %12s %10s",
+                "benchmark", "ops", "ops/s", "items/s", "p50 us", "p99 us", "B/op", "MB/s");
+    }
+
+    String format() {
+        return String.format(Locale.US, "%-28s %10d %12.1f %12.1f %12.2f %12.2f %12d %10.2f",
+                name, operations, operationsPerSecond, itemsPerSecond,
+                p50Nanos / 1000.0, p99Nanos / 1000.0, bytesPerOperation,
+                bytesPerSecond / (1024 * 1024));
+    }
+}
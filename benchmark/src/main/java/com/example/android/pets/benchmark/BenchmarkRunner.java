@@ -0,0 +1,111 @@
+package com.example.android.pets.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BenchmarkRunner} times benchmarks the way JMH does in its simplest mode: each one is
+ * warmed up for a while so the JIT has compiled it, then run over and over for a fixed time
+ * with every operation timed on its own, to get the percentiles and not only the mean.
+ * <p>
+ * Allocations are counted with the per-thread allocation counter of HotSpot, so they only cover
+ * the Java heap of the benchmark thread. Memory SQLite allocates natively isn't included.
+ */
+class BenchmarkRunner {
+
+    /**
+     * A piece of work to measure.
+     */
+    abstract static class Benchmark {
+        final String name;
+
+        /**
+         * Number of items (rows, pets) one operation handles
+         */
+        final int itemsPerOperation;
+
+        Benchmark(String name, int itemsPerOperation) {
+            this.name = name;
+            this.itemsPerOperation = itemsPerOperation;
+        }
+
+        /**
+         * Get ready for the next operation. Not measured.
+         */
+        void prepare() throws Exception {
+        }
+
+        /**
+         * Run one operation.
+         */
+        abstract void run() throws Exception;
+    }
+
+    /**
+     * Every benchmark runs at least this many times, however long that takes
+     */
+    private static final int MIN_OPERATIONS = 5;
+
+    private final long mWarmupNanos;
+    private final long mMeasureNanos;
+
+    private final com.sun.management.ThreadMXBean mThreadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    BenchmarkRunner(long warmupMillis, long measureMillis) {
+        mWarmupNanos = TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        mMeasureNanos = TimeUnit.MILLISECONDS.toNanos(measureMillis);
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    BenchmarkResult run(Benchmark benchmark) throws Exception {
+        // Warm up
+        long end = System.nanoTime() + mWarmupNanos;
+        for (int i = 0; i < MIN_OPERATIONS || System.nanoTime() < end; i++) {
+            benchmark.prepare();
+            benchmark.run();
+        }
+
+        long[] times = new long[1024];
+        int count = 0;
+        long totalNanos = 0;
+        long totalBytes = 0;
+        long threadId = Thread.currentThread().getId();
+
+        end = System.nanoTime() + mMeasureNanos;
+        while (count < MIN_OPERATIONS || System.nanoTime() < end) {
+            benchmark.prepare();
+
+            long bytesBefore = mThreadBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            benchmark.run();
+            long nanos = System.nanoTime() - start;
+            totalBytes += mThreadBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+            }
+            times[count++] = nanos;
+            totalNanos += nanos;
+        }
+
+        Arrays.sort(times, 0, count);
+        double seconds = totalNanos / 1e9;
+        return new BenchmarkResult(benchmark.name, count,
+                count / seconds,
+                (double) count * benchmark.itemsPerOperation / seconds,
+                percentile(times, count, 50),
+                percentile(times, count, 99),
+                totalBytes / count,
+                totalBytes / seconds);
+    }
+
+    /**
+     * Returns the given percentile of the first count sorted times, by the nearest rank.
+     */
+    private static long percentile(long[] sortedTimes, int count, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sortedTimes[Math.max(rank, 1) - 1];
+    }
+}
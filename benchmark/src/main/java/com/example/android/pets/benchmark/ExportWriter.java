@@ -0,0 +1,157 @@
+package com.example.android.pets.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * {@link ExportWriter} formats the rows of an export the way the CsvWriter and JsonWriter of
+ * PetExporter do, reading them from a result set instead of a cursor. Whenever PetExporter's
+ * formats change, change them here too.
+ */
+abstract class ExportWriter {
+
+    /**
+     * The columns of PetEntry.EXPORT_COLUMNS
+     */
+    private static final String[] COLUMNS = {"_id", "name", "breed", "gender", "weight"};
+
+    abstract void writeStart(Writer writer) throws IOException;
+
+    abstract void writeRow(Writer writer, ResultSet resultSet, long index)
+            throws IOException, SQLException;
+
+    abstract void writeEnd(Writer writer) throws IOException;
+
+    /**
+     * CSV as in RFC 4180, like PetExporter's CsvWriter
+     */
+    static class Csv extends ExportWriter {
+
+        @Override
+        void writeStart(Writer writer) throws IOException {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(COLUMNS[i]);
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        void writeRow(Writer writer, ResultSet resultSet, long index)
+                throws IOException, SQLException {
+            for (int i = 1; i <= COLUMNS.length; i++) {
+                if (i > 1) {
+                    writer.write(',');
+                }
+                String value = resultSet.getString(i);
+                if (value != null) {
+                    writeField(writer, value);
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        void writeEnd(Writer writer) {
+        }
+
+        private static void writeField(Writer writer, String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quote) {
+                writer.write(value);
+                return;
+            }
+
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    writer.write('"');
+                }
+                writer.write(c);
+            }
+            writer.write('"');
+        }
+    }
+
+    /**
+     * A JSON array with one object per pet, like PetExporter's JsonWriter
+     */
+    static class Json extends ExportWriter {
+
+        @Override
+        void writeStart(Writer writer) throws IOException {
+            writer.write('[');
+        }
+
+        @Override
+        void writeRow(Writer writer, ResultSet resultSet, long index)
+                throws IOException, SQLException {
+            if (index > 0) {
+                writer.write(',');
+            }
+            writer.write("\n{");
+            for (int i = 1; i <= COLUMNS.length; i++) {
+                if (i > 1) {
+                    writer.write(',');
+                }
+                writeString(writer, COLUMNS[i - 1]);
+                writer.write(':');
+                Object value = resultSet.getObject(i);
+                if (value == null) {
+                    writer.write("null");
+                } else if (value instanceof Number) {
+                    writer.write(resultSet.getString(i));
+                } else {
+                    writeString(writer, resultSet.getString(i));
+                }
+            }
+            writer.write('}');
+        }
+
+        @Override
+        void writeEnd(Writer writer) throws IOException {
+            writer.write("\n]\n");
+        }
+
+        private static void writeString(Writer writer, String value) throws IOException {
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        writer.write("\\\"");
+                        break;
+                    case '\\':
+                        writer.write("\\\\");
+                        break;
+                    case '\n':
+                        writer.write("\\n");
+                        break;
+                    case '\r':
+                        writer.write("\\r");
+                        break;
+                    case '\t':
+                        writer.write("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            writer.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            writer.write(c);
+                        }
+                        break;
+                }
+            }
+            writer.write('"');
+        }
+    }
+}
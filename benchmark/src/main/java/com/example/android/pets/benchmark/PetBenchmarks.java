@@ -0,0 +1,551 @@
+package com.example.android.pets.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Benchmarks of the pet database: writes, lookups, scans, exports and row binding, at several
+ * catalog sizes. The results are printed as a table and compared with the baseline file if there is
+ * one, and the run fails if a benchmark regressed.
+ * <p>
+ * Arguments, all optional:
+ * <pre>
+ *   --sizes=1000,100000,1000000  numbers of pets to measure the reads at
+ *   --filter=scan                only run the benchmarks whose name contains this
+ *   --warmup-ms=1000             warm-up time of each benchmark
+ *   --measure-ms=3000            measuring time of each benchmark
+ *   --baseline=baseline.json     baseline file to compare with and save to
+ *   --threshold=0.10             fraction a result may be worse than the baseline by
+ *   --save-baseline              save the results as the new baseline
+ * </pre>
+ * With Gradle: {@code gradlew :benchmark:run -PbenchmarkArgs="--sizes=1000 --save-baseline"}
+ */
+public class PetBenchmarks {
+
+    /**
+     * Page size of the catalog, as in CatalogActivity
+     */
+    private static final int CATALOG_PAGE_SIZE = 50;
+
+    /**
+     * Page size of exports, as in PetExporter
+     */
+    private static final int EXPORT_PAGE_SIZE = 500;
+
+    /**
+     * Chunk size of imports, as in PetImporter
+     */
+    private static final int IMPORT_CHUNK_SIZE = 5000;
+
+    /**
+     * Number of pets in the import benchmark
+     */
+    private static final int IMPORT_SIZE = 100000;
+
+    /**
+     * Size of the buffer between PetExporter's formatter and its output, in chars
+     */
+    private static final int EXPORT_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Position in the first page of the pet edited between two frames
+     */
+    private static final int EDITED_POSITION = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Where the exports go: the output is encoded, then thrown away
+     */
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private int[] mSizes = {1000, 100000, 1000000};
+    private String mFilter = "";
+    private long mWarmupMillis = 1000;
+    private long mMeasureMillis = 3000;
+    private File mBaselineFile = new File("baseline.json");
+    private double mThreshold = 0.10;
+    private boolean mSaveBaseline;
+
+    private final List<BenchmarkResult> mResults = new ArrayList<>();
+
+    private BenchmarkRunner mRunner;
+    private File mDir;
+
+    public static void main(String[] args) throws Exception {
+        PetBenchmarks benchmarks = new PetBenchmarks();
+        benchmarks.parseArguments(args);
+        System.exit(benchmarks.runAll() ? 0 : 1);
+    }
+
+    private void parseArguments(String[] args) {
+        for (String arg : args) {
+            String value = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : null;
+            if (arg.startsWith("--sizes=")) {
+                String[] sizes = value.split(",");
+                mSizes = new int[sizes.length];
+                for (int i = 0; i < sizes.length; i++) {
+                    mSizes[i] = Integer.parseInt(sizes[i].trim());
+                }
+            } else if (arg.startsWith("--filter=")) {
+                mFilter = value;
+            } else if (arg.startsWith("--warmup-ms=")) {
+                mWarmupMillis = Long.parseLong(value);
+            } else if (arg.startsWith("--measure-ms=")) {
+                mMeasureMillis = Long.parseLong(value);
+            } else if (arg.startsWith("--baseline=")) {
+                mBaselineFile = new File(value);
+            } else if (arg.startsWith("--threshold=")) {
+                mThreshold = Double.parseDouble(value);
+            } else if (arg.equals("--save-baseline")) {
+                mSaveBaseline = true;
+            } else if (!arg.isEmpty()) {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+    }
+
+    /**
+     * Run every benchmark and report. Returns false if one of them regressed.
+     */
+    private boolean runAll() throws Exception {
+        mRunner = new BenchmarkRunner(mWarmupMillis, mMeasureMillis);
+        mDir = Files.createTempDirectory("pet-benchmarks").toFile();
+        System.out.println(BenchmarkResult.formatHeader());
+        try {
+            runWrites();
+            for (int size : mSizes) {
+                runReads(size);
+            }
+            runImport();
+        } finally {
+            deleteDir(mDir);
+        }
+
+        boolean passed = true;
+        if (mBaselineFile.isFile()) {
+            List<String> regressions = Baseline.read(mBaselineFile).compare(mResults, mThreshold);
+            if (regressions.isEmpty()) {
+                System.out.println("\nNo regressions against " + mBaselineFile);
+            } else {
+                System.out.println(String.format(Locale.US,
+                        "\nRegressions of more than %.0f%% against %s:",
+                        mThreshold * 100, mBaselineFile));
+                for (String regression : regressions) {
+                    System.out.println("  " + regression);
+                }
+                passed = false;
+            }
+        }
+
+        if (mSaveBaseline) {
+            Baseline.write(mBaselineFile, mResults);
+            System.out.println("\nSaved the baseline to " + mBaselineFile);
+        }
+        return passed;
+    }
+
+    /**
+     * Single inserts, bulk inserts, updates with and without the statement cache, binding, the
+     * frame after an edit, delete-all and the compaction that purges the deleted pets, on the
+     * smallest catalog.
+     */
+    private void runWrites() throws Exception {
+        final int size = mSizes[0];
+        if (!wants("insert", "bulkInsert/", "update", "bind", "frame/", "deleteAll/",
+                "compact/")) {
+            return;
+        }
+        final ShelterDatabase db = openDatabase("writes");
+        final Random random = new Random(7);
+        try {
+            db.fill(size);
+
+            run(new BenchmarkRunner.Benchmark("insert", 1) {
+                @Override
+                void run() throws Exception {
+                    db.insertPet();
+                }
+            });
+
+            run(new BenchmarkRunner.Benchmark("bulkInsert/" + IMPORT_CHUNK_SIZE,
+                    IMPORT_CHUNK_SIZE) {
+                @Override
+                void run() throws Exception {
+                    db.bulkInsertPets(IMPORT_CHUNK_SIZE);
+                }
+            });
+
+            final long maxId = db.maxId();
+            run(new BenchmarkRunner.Benchmark("update", 1) {
+                @Override
+                void run() throws Exception {
+                    db.updateWeight(1 + random.nextInt((int) maxId), random.nextInt(60));
+                }
+            });
+
+            // The same update, compiled every time as before PetStatementCache
+            run(new BenchmarkRunner.Benchmark("updateUncached", 1) {
+                @Override
+                void run() throws Exception {
+                    db.updateWeightUncached(1 + random.nextInt((int) maxId),
+                            random.nextInt(60));
+                }
+            });
+
+            final RowWindow window = db.queryFirstPage(CATALOG_PAGE_SIZE);
+            final RowWindow.Item item = new RowWindow.Item();
+            run(new BenchmarkRunner.Benchmark("bind", window.getCount()) {
+                @Override
+                void run() {
+                    // One screenful of rows, the way the list binds them while scrolling
+                    for (int i = 0; i < window.getCount(); i++) {
+                        window.bind(i, item);
+                    }
+                }
+            });
+
+            // What the main thread does once one pet of the first page has been edited: bind
+            // the one row the diff found, or every row as before the diff
+            run(new FrameBenchmark("frame/diffed", db, true));
+            run(new FrameBenchmark("frame/rebindAll", db, false));
+
+            // The comparison of the rows the diff makes off the main thread for that frame
+            long editedId = window.getId(EDITED_POSITION);
+            db.updateBreed(editedId, "Husky");
+            final RowWindow shown = db.queryFirstPage(CATALOG_PAGE_SIZE);
+            db.updateBreed(editedId, "Tabby");
+            final RowWindow edited = db.queryFirstPage(CATALOG_PAGE_SIZE);
+            run(new BenchmarkRunner.Benchmark("frame/diff", shown.getCount()) {
+                @Override
+                void run() {
+                    int changed = 0;
+                    for (int i = 0; i < shown.getCount(); i++) {
+                        if (!shown.contentEquals(i, edited, i)) {
+                            changed++;
+                        }
+                    }
+                    if (changed != 1) {
+                        throw new IllegalStateException(changed + " rows changed");
+                    }
+                }
+            });
+
+            run(new BenchmarkRunner.Benchmark("deleteAll/" + size, size) {
+                @Override
+                void prepare() throws Exception {
+                    db.purgeDeletedPets();
+                    db.fill(size);
+                }
+
+                @Override
+                void run() throws Exception {
+                    db.deleteAllPets();
+                }
+            });
+
+            run(new BenchmarkRunner.Benchmark("compact/" + size, size) {
+                @Override
+                void prepare() throws Exception {
+                    db.fill(size);
+                    db.deleteAllPets();
+                }
+
+                @Override
+                void run() throws Exception {
+                    db.purgeDeletedPets();
+                }
+            });
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Lookups by id with and without the statement cache, full scans, paged scans, filtered
+     * paged scans, exports, statistics and breed counts of a catalog of the given size, and
+     * last lookups while another connection writes.
+     */
+    private void runReads(final int size) throws Exception {
+        if (!wants("queryById/" + size, "queryByIdUncached/" + size, "scan/" + size,
+                "pages/" + size, "filteredPages/" + size, "exportCsv/" + size,
+                "exportJson/" + size, "stats/" + size, "breedCounts/" + size,
+                "queryByIdDuringWrites/" + size)) {
+            return;
+        }
+        final ShelterDatabase db = openDatabase("reads-" + size);
+        final Random random = new Random(11);
+        try {
+            db.fill(size);
+            final long maxId = db.maxId();
+
+            run(new BenchmarkRunner.Benchmark("queryById/" + size, 1) {
+                @Override
+                void run() throws Exception {
+                    db.queryPet(1 + random.nextInt((int) maxId));
+                }
+            });
+
+            // The same lookup, compiled every time as before PetStatementCache
+            run(new BenchmarkRunner.Benchmark("queryByIdUncached/" + size, 1) {
+                @Override
+                void run() throws Exception {
+                    db.queryPetUncached(1 + random.nextInt((int) maxId));
+                }
+            });
+
+            run(new BenchmarkRunner.Benchmark("scan/" + size, size) {
+                @Override
+                void run() throws Exception {
+                    db.queryPets();
+                }
+            });
+
+            // How PetExporter reads the catalog
+            run(new BenchmarkRunner.Benchmark("pages/" + size, size) {
+                @Override
+                void run() throws Exception {
+                    db.queryPages(EXPORT_PAGE_SIZE);
+                }
+            });
+
+            // The catalog filtered to one gender and sorted by weight, about a third of the pets
+            final int filteredSize = db.queryFilteredPages(1, CATALOG_PAGE_SIZE);
+            run(new BenchmarkRunner.Benchmark("filteredPages/" + size, filteredSize) {
+                @Override
+                void run() throws Exception {
+                    db.queryFilteredPages(1, CATALOG_PAGE_SIZE);
+                }
+            });
+
+            // How PetExporter writes the roster, without gzip
+            run(new ExportBenchmark("exportCsv/" + size, size, db, new ExportWriter.Csv()));
+            run(new ExportBenchmark("exportJson/" + size, size, db, new ExportWriter.Json()));
+
+            // Statistics come from the summary tables, so they shouldn't grow with the catalog
+            run(new BenchmarkRunner.Benchmark("stats/" + size, 1) {
+                @Override
+                void run() throws Exception {
+                    db.queryStats();
+                }
+            });
+
+            // Recounting the breeds has to group every pet, which is what checking the
+            // statistics costs
+            run(new BenchmarkRunner.Benchmark("breedCounts/" + size, size) {
+                @Override
+                void run() throws Exception {
+                    db.countBreeds();
+                }
+            });
+
+            // Lookups on a read connection while the writer connection inserts pets one by one,
+            // as the catalog reads while the editor saves. In WAL mode the reads shouldn't wait
+            // for the writes. This runs last since it grows the catalog.
+            if (wants("queryByIdDuringWrites/" + size)) {
+                runDuringWrites(db, new BenchmarkRunner.Benchmark(
+                        "queryByIdDuringWrites/" + size, 1) {
+                    @Override
+                    void run() throws Exception {
+                        mReader.queryPet(1 + random.nextInt((int) maxId));
+                    }
+                });
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * The read connection of {@link #runDuringWrites}
+     */
+    private ShelterDatabase mReader;
+
+    /**
+     * Run the benchmark, which reads with {@link #mReader}, while another thread keeps
+     * inserting pets into the database.
+     */
+    private void runDuringWrites(final ShelterDatabase db, BenchmarkRunner.Benchmark benchmark)
+            throws Exception {
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Exception> writeError = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (writing.get()) {
+                        db.insertPet();
+                    }
+                } catch (Exception e) {
+                    writeError.set(e);
+                }
+            }
+        }, "writer");
+
+        mReader = db.openReader();
+        writer.start();
+        try {
+            run(benchmark);
+        } finally {
+            writing.set(false);
+            writer.join();
+            mReader.close();
+            mReader = null;
+        }
+        if (writeError.get() != null) {
+            throw writeError.get();
+        }
+    }
+
+    /**
+     * The database side of importing a large roster: chunked bulk inserts into an empty
+     * catalog.
+     */
+    private void runImport() throws Exception {
+        if (!wants("import/" + IMPORT_SIZE)) {
+            return;
+        }
+        final ShelterDatabase db = openDatabase("import");
+        try {
+            run(new BenchmarkRunner.Benchmark("import/" + IMPORT_SIZE, IMPORT_SIZE) {
+                @Override
+                void prepare() throws Exception {
+                    db.deleteAllPets();
+                    db.purgeDeletedPets();
+                }
+
+                @Override
+                void run() throws Exception {
+                    for (int i = 0; i < IMPORT_SIZE; i += IMPORT_CHUNK_SIZE) {
+                        db.bulkInsertPets(IMPORT_CHUNK_SIZE);
+                    }
+                }
+            });
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Returns true if the filter lets one of the named benchmarks run, so databases aren't
+     * filled for nothing.
+     */
+    private boolean wants(String... names) {
+        for (String name : names) {
+            if (name.contains(mFilter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void run(BenchmarkRunner.Benchmark benchmark) throws Exception {
+        if (!benchmark.name.contains(mFilter)) {
+            return;
+        }
+        BenchmarkResult result = mRunner.run(benchmark);
+        mResults.add(result);
+        System.out.println(result.format());
+    }
+
+    /**
+     * Writes every pet of the catalog in one format, the way PetExporter does, to an output
+     * that throws the bytes away.
+     */
+    private static class ExportBenchmark extends BenchmarkRunner.Benchmark {
+        private final ShelterDatabase mDb;
+        private final ExportWriter mExportWriter;
+
+        ExportBenchmark(String name, int size, ShelterDatabase db, ExportWriter exportWriter) {
+            super(name, size);
+            mDb = db;
+            mExportWriter = exportWriter;
+        }
+
+        @Override
+        void run() throws Exception {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(NULL_OUTPUT, UTF_8),
+                    EXPORT_BUFFER_SIZE);
+            mDb.exportPets(mExportWriter, writer, EXPORT_PAGE_SIZE);
+        }
+    }
+
+    /**
+     * The frame after one pet of the first page was edited. Before each frame the pet's breed
+     * is changed and the page queried again, as the pager does in the background, and the new
+     * rows are compared with the ones shown, as PetCursorAdapter's diff does on its own thread.
+     * The frame then binds the one row that changed, or every row like a whole new cursor did.
+     * <p>
+     * {@link RowWindow#bind} only copies the row, so the real difference is larger: every row
+     * bound also sets its views.
+     */
+    private static class FrameBenchmark extends BenchmarkRunner.Benchmark {
+        private final ShelterDatabase mDb;
+        private final boolean mDiff;
+        private final RowWindow.Item mItem = new RowWindow.Item();
+        private final boolean[] mChanged = new boolean[CATALOG_PAGE_SIZE];
+        private RowWindow mShown;
+        private RowWindow mNext;
+        private int mEdits;
+
+        FrameBenchmark(String name, ShelterDatabase db, boolean diff) throws Exception {
+            super(name, CATALOG_PAGE_SIZE);
+            mDb = db;
+            mDiff = diff;
+            mShown = db.queryFirstPage(CATALOG_PAGE_SIZE);
+        }
+
+        @Override
+        void prepare() throws Exception {
+            mDb.updateBreed(mShown.getId(EDITED_POSITION), mEdits++ % 2 == 0 ? "Husky" : "Tabby");
+            mNext = mDb.queryFirstPage(CATALOG_PAGE_SIZE);
+            for (int i = 0; i < mNext.getCount(); i++) {
+                mChanged[i] = !mDiff || i >= mShown.getCount()
+                        || !mShown.contentEquals(i, mNext, i);
+            }
+        }
+
+        @Override
+        void run() {
+            for (int i = 0; i < mNext.getCount(); i++) {
+                if (mChanged[i]) {
+                    mNext.bind(i, mItem);
+                }
+            }
+            mShown = mNext;
+        }
+    }
+
+    private ShelterDatabase openDatabase(String name) throws Exception {
+        return new ShelterDatabase(new File(mDir, name + ".db"));
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
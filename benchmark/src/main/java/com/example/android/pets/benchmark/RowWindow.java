@@ -0,0 +1,106 @@
+package com.example.android.pets.benchmark;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * {@link RowWindow} holds a page of pets in memory the way a CursorWindow does, so that binding
+ * the catalog's rows can be measured without Android.
+ * <p>
+ * {@link #bind} does what PetCursorAdapter.onBindViewHolder does with the cursor: it copies the
+ * name and breed of a row into character buffers owned by the list item, growing them only when
+ * a longer text comes along. Only the cost of reading the row is measured, not that of the views.
+ */
+class RowWindow {
+
+    /**
+     * The character buffers of a list item, like a CharArrayBuffer each
+     */
+    static class Item {
+        char[] name = new char[32];
+        int nameLength;
+        char[] breed = new char[32];
+        int breedLength;
+        String photo;
+    }
+
+    private final long[] mIds;
+    private final String[] mNames;
+    private final String[] mBreeds;
+    private final String[] mPhotos;
+    private final int mCount;
+
+    private RowWindow(int capacity, ResultSet resultSet) throws SQLException {
+        mIds = new long[capacity];
+        mNames = new String[capacity];
+        mBreeds = new String[capacity];
+        mPhotos = new String[capacity];
+
+        int count = 0;
+        while (count < capacity && resultSet.next()) {
+            mIds[count] = resultSet.getLong(1);
+            mNames[count] = resultSet.getString(2);
+            mBreeds[count] = resultSet.getString(3);
+            mPhotos[count] = resultSet.getString(4);
+            count++;
+        }
+        mCount = count;
+    }
+
+    /**
+     * Read up to the given number of rows of _id, name, breed and photo from the result set.
+     */
+    static RowWindow fill(ResultSet resultSet, int capacity) throws SQLException {
+        return new RowWindow(capacity, resultSet);
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    long getId(int position) {
+        return mIds[position];
+    }
+
+    /**
+     * Returns true if the row at the given position shows the same pet as the row at the other
+     * position of the other window, with the same contents, which is what DiffUtil asks the
+     * adapter's diff callback.
+     */
+    boolean contentEquals(int position, RowWindow other, int otherPosition) {
+        return mIds[position] == other.mIds[otherPosition]
+                && equals(mNames[position], other.mNames[otherPosition])
+                && equals(mBreeds[position], other.mBreeds[otherPosition])
+                && equals(mPhotos[position], other.mPhotos[otherPosition]);
+    }
+
+    /**
+     * Copy the row at the given position into the item.
+     */
+    void bind(int position, Item item) {
+        item.name = copy(mNames[position], item.name);
+        item.nameLength = mNames[position].length();
+
+        String breed = mBreeds[position];
+        if (breed == null) {
+            item.breedLength = 0;
+        } else {
+            item.breed = copy(breed, item.breed);
+            item.breedLength = breed.length();
+        }
+
+        item.photo = mPhotos[position];
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static char[] copy(String text, char[] buffer) {
+        if (buffer.length < text.length()) {
+            buffer = new char[text.length()];
+        }
+        text.getChars(0, text.length(), buffer, 0);
+        return buffer;
+    }
+}
@@ -0,0 +1,745 @@
+package com.example.android.pets.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * {@link ShelterDatabase} is a stand-in for the app's database on the JVM: the same schema,
+ * settings and statements as PetDbHelper and PetProvider, run through SQLite JDBC instead of
+ * the Android SQLite classes.
+ * <p>
+ * The schema is read from the one PetDbHelper exports, so it follows the app's migrations.
+ * Whenever one of the app's statements below changes, change it here too, or the benchmarks
+ * measure queries the app no longer runs.
+ */
+class ShelterDatabase {
+
+    /**
+     * The schema PetDbHelper exports to app/schemas, which its tests check
+     */
+    private static final String SCHEMA_RESOURCE = "/shelter.sql";
+
+    /**
+     * The settings PetDbHelper applies to its writer connection
+     */
+    private static final String[] PRAGMAS = {
+            "page_size = 4096",
+            "auto_vacuum = 2",
+            "journal_mode = WAL",
+            "cache_size = -2048",
+            "synchronous = 1",
+            "wal_autocheckpoint = 4000",
+    };
+
+    /**
+     * PetProvider.SQL_INSERT_PET, which bulk inserts bind for every row
+     */
+    private static final String SQL_INSERT_PET =
+            "INSERT INTO pets (name, breed_id, gender, weight, sync_id) VALUES (?, ?, ?, ?, ?)";
+
+    /**
+     * What the BreedDictionary of PetProvider runs for a breed it hasn't seen yet
+     */
+    private static final String SQL_QUERY_BREED_ID = "SELECT _id FROM breeds WHERE name = ?";
+    private static final String SQL_INSERT_BREED = "INSERT INTO breeds (name) VALUES (?)";
+
+    /**
+     * How PetProvider's projection map reads the breed of a pet
+     */
+    private static final String BREED = "(SELECT name FROM breeds"
+            + " WHERE breeds._id = pets.breed_id) AS breed";
+
+    /**
+     * What a query of one pet with PetEntry.PROJECTION_DEFAULT runs
+     */
+    private static final String SQL_QUERY_PET = "SELECT _id, name, " + BREED
+            + ", gender, weight, photo FROM pets WHERE _id = ? AND deleted_at IS NULL";
+
+    /**
+     * What a query of every pet with PetEntry.PROJECTION_DEFAULT runs
+     */
+    private static final String SQL_QUERY_PETS = "SELECT _id, name, " + BREED
+            + ", gender, weight, photo FROM pets WHERE deleted_at IS NULL";
+
+    /**
+     * PetProvider's first page and following pages, with PetEntry.PROJECTION_SUMMARY
+     */
+    private static final String SQL_QUERY_FIRST_PAGE =
+            "SELECT _id, name, " + BREED + ", photo FROM pets WHERE deleted_at IS NULL"
+                    + " ORDER BY name COLLATE NOCASE, _id LIMIT ?";
+    private static final String SQL_QUERY_NEXT_PAGE =
+            "SELECT _id, name, " + BREED + ", photo FROM pets WHERE deleted_at IS NULL"
+                    + " AND name COLLATE NOCASE >= ? AND (name COLLATE NOCASE > ? OR _id > ?)"
+                    + " ORDER BY name COLLATE NOCASE, _id LIMIT ?";
+
+    /**
+     * PetProvider's first page and following pages of the pets of one gender, heaviest first,
+     * with PetEntry.PROJECTION_SUMMARY and the weight the pager adds as the sort key
+     */
+    private static final String SQL_QUERY_FIRST_FILTERED_PAGE =
+            "SELECT _id, name, " + BREED + ", photo, weight FROM pets"
+                    + " WHERE deleted_at IS NULL AND gender = ?"
+                    + " ORDER BY weight DESC, _id DESC LIMIT ?";
+    private static final String SQL_QUERY_NEXT_FILTERED_PAGE =
+            "SELECT _id, name, " + BREED + ", photo, weight FROM pets"
+                    + " WHERE deleted_at IS NULL AND gender = ?"
+                    + " AND weight <= ? AND (weight < ? OR _id < ?)"
+                    + " ORDER BY weight DESC, _id DESC LIMIT ?";
+
+    /**
+     * What PetStatementCache compiles for an update of the weight of one pet
+     */
+    private static final String SQL_UPDATE_WEIGHT =
+            "UPDATE pets SET weight = ? WHERE _id = ? AND deleted_at IS NULL";
+
+    /**
+     * PetExporter's first page and following pages, with PetEntry.EXPORT_COLUMNS
+     */
+    private static final String SQL_QUERY_FIRST_EXPORT_PAGE =
+            "SELECT _id, name, " + BREED + ", gender, weight FROM pets WHERE deleted_at IS NULL"
+                    + " ORDER BY name COLLATE NOCASE, _id LIMIT ?";
+    private static final String SQL_QUERY_NEXT_EXPORT_PAGE =
+            "SELECT _id, name, " + BREED + ", gender, weight FROM pets WHERE deleted_at IS NULL"
+                    + " AND name COLLATE NOCASE >= ? AND (name COLLATE NOCASE > ? OR _id > ?)"
+                    + " ORDER BY name COLLATE NOCASE, _id LIMIT ?";
+
+    /**
+     * What PetStatementCache compiles for an update of the breed of one pet, once the breed
+     * has been looked up in the dictionary
+     */
+    private static final String SQL_UPDATE_BREED =
+            "UPDATE pets SET breed_id = ? WHERE _id = ? AND deleted_at IS NULL";
+
+    /**
+     * How PetProvider's projection map reads the breed of a row of the breed statistics
+     */
+    private static final String STATS_BREED = "IFNULL((SELECT name FROM breeds"
+            + " WHERE _id = pet_breed_stats.breed_id), '')";
+
+    /**
+     * PetProvider's queries of the statistics by gender and of the ten most common breeds
+     */
+    private static final String SQL_QUERY_GENDER_STATS = "SELECT gender, pet_count,"
+            + " total_weight, CAST(total_weight AS REAL) / pet_count AS average_weight,"
+            + " (SELECT MAX(weight) FROM pets WHERE deleted_at IS NULL"
+            + " AND gender = pet_gender_stats.gender) AS max_weight"
+            + " FROM pet_gender_stats WHERE pet_count > 0 ORDER BY gender";
+    private static final String SQL_QUERY_TOP_BREEDS = "SELECT " + STATS_BREED + " AS breed,"
+            + " pet_count FROM pet_breed_stats WHERE pet_count > 0"
+            + " ORDER BY pet_count DESC, " + STATS_BREED + " LIMIT 10";
+
+    /**
+     * PetDbHelper's count of the pets of every breed, which checkStats and rebuildStats
+     * recompute the breed statistics with
+     */
+    private static final String SQL_COUNT_BREEDS = "SELECT IFNULL(breed_id, 0), COUNT(*)"
+            + " FROM pets WHERE deleted_at IS NULL GROUP BY breed_id";
+
+    /**
+     * One batch of PetDbHelper's compaction
+     */
+    private static final int PURGE_BATCH_SIZE = 200;
+    private static final String SQL_PURGE_BATCH = "DELETE FROM pets WHERE _id IN (SELECT _id"
+            + " FROM pets WHERE deleted_at IS NOT NULL AND deleted_at <= ? LIMIT "
+            + PURGE_BATCH_SIZE + ")";
+
+    private static final String[] NAMES = {
+            "Toto", "Binx", "Garfield", "Tom", "Lady", "Scooby", "Rex", "Luna", "Milo", "Bella",
+            "Oscar", "Daisy", "Simba", "Coco", "Max", "Nala", "Rocky", "Loki", "Pepper", "Ziggy"
+    };
+
+    private static final String[] BREEDS = {
+            "Terrier", "Tabby", "Persian", "Beagle", "Poodle", "Siamese", "Labrador", "Husky",
+            "Maine Coon", "Bulldog", null
+    };
+
+    private final File mFile;
+    private final Connection mConnection;
+
+    private final PreparedStatement mInsertPet;
+    private final PreparedStatement mQueryBreedId;
+    private final PreparedStatement mInsertBreed;
+    private final PreparedStatement mQueryPet;
+    private final PreparedStatement mQueryFirstPage;
+    private final PreparedStatement mQueryNextPage;
+    private final PreparedStatement mQueryFirstFilteredPage;
+    private final PreparedStatement mQueryNextFilteredPage;
+    private final PreparedStatement mQueryFirstExportPage;
+    private final PreparedStatement mQueryNextExportPage;
+    private final PreparedStatement mUpdateWeight;
+    private final PreparedStatement mUpdateBreed;
+    private final PreparedStatement mPurgeBatch;
+    private final PreparedStatement mQueryGenderStats;
+    private final PreparedStatement mQueryTopBreeds;
+
+    private final Random mRandom = new Random(42);
+
+    /**
+     * Breed ids by name, like the BreedDictionary of PetProvider keeps them
+     */
+    private final Map<String, Long> mBreedIds = new HashMap<>();
+
+    /**
+     * Create a new database in the given file, which must not exist yet.
+     */
+    ShelterDatabase(File file) throws SQLException, IOException {
+        this(file, true);
+    }
+
+    private ShelterDatabase(File file, boolean create) throws SQLException, IOException {
+        mFile = file;
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+
+        if (create) {
+            Statement statement = mConnection.createStatement();
+            try {
+                for (String pragma : PRAGMAS) {
+                    statement.execute("PRAGMA " + pragma);
+                }
+                for (String sql : readSchema()) {
+                    statement.execute(sql);
+                }
+                // What the migration of version 9 adds along with the table
+                statement.execute("INSERT INTO sync_state DEFAULT VALUES");
+            } finally {
+                statement.close();
+            }
+        }
+
+        mInsertPet = mConnection.prepareStatement(SQL_INSERT_PET);
+        mQueryBreedId = mConnection.prepareStatement(SQL_QUERY_BREED_ID);
+        mInsertBreed = mConnection.prepareStatement(SQL_INSERT_BREED);
+        mQueryPet = mConnection.prepareStatement(SQL_QUERY_PET);
+        mQueryFirstPage = mConnection.prepareStatement(SQL_QUERY_FIRST_PAGE);
+        mQueryNextPage = mConnection.prepareStatement(SQL_QUERY_NEXT_PAGE);
+        mQueryFirstFilteredPage = mConnection.prepareStatement(SQL_QUERY_FIRST_FILTERED_PAGE);
+        mQueryNextFilteredPage = mConnection.prepareStatement(SQL_QUERY_NEXT_FILTERED_PAGE);
+        mQueryFirstExportPage = mConnection.prepareStatement(SQL_QUERY_FIRST_EXPORT_PAGE);
+        mQueryNextExportPage = mConnection.prepareStatement(SQL_QUERY_NEXT_EXPORT_PAGE);
+        mUpdateWeight = mConnection.prepareStatement(SQL_UPDATE_WEIGHT);
+        mUpdateBreed = mConnection.prepareStatement(SQL_UPDATE_BREED);
+        mPurgeBatch = mConnection.prepareStatement(SQL_PURGE_BATCH);
+        mQueryGenderStats = mConnection.prepareStatement(SQL_QUERY_GENDER_STATS);
+        mQueryTopBreeds = mConnection.prepareStatement(SQL_QUERY_TOP_BREEDS);
+    }
+
+    /**
+     * Open another connection to the same database, like one of the read connections of the
+     * platform's pool. It shares the schema and settings of this one.
+     */
+    ShelterDatabase openReader() throws SQLException, IOException {
+        return new ShelterDatabase(mFile, false);
+    }
+
+    /**
+     * Returns the PetDbHelper version of the exported schema, which it sets last.
+     */
+    static int getSchemaVersion() throws IOException {
+        List<String> schema = readSchema();
+        String version = schema.get(schema.size() - 1);
+        return Integer.parseInt(version.substring(version.indexOf('=') + 1,
+                version.length() - 1).trim());
+    }
+
+    /**
+     * Returns the statements of the exported schema, one per line of the file.
+     */
+    private static List<String> readSchema() throws IOException {
+        InputStream in = ShelterDatabase.class.getResourceAsStream(SCHEMA_RESOURCE);
+        if (in == null) {
+            throw new FileNotFoundException(SCHEMA_RESOURCE + " is not on the classpath");
+        }
+        List<String> schema = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("--")) {
+                    schema.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return schema;
+    }
+
+    void close() throws SQLException {
+        mConnection.close();
+    }
+
+    /**
+     * Insert one pet in its own transaction, like PetProvider.insert.
+     */
+    long insertPet() throws SQLException {
+        bindRandomPet(mInsertPet);
+        mInsertPet.executeUpdate();
+        return lastInsertId();
+    }
+
+    /**
+     * Insert the given number of pets in one transaction, like PetProvider.bulkInsert.
+     */
+    void bulkInsertPets(int count) throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < count; i++) {
+                bindRandomPet(mInsertPet);
+                mInsertPet.executeUpdate();
+            }
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            mBreedIds.clear();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Bring the number of pets up to the given count, in large transactions.
+     */
+    void fill(int count) throws SQLException {
+        int missing = count - countPets();
+        while (missing > 0) {
+            int chunk = Math.min(missing, 10000);
+            bulkInsertPets(chunk);
+            missing -= chunk;
+        }
+    }
+
+    /**
+     * Read every column of one pet, like a query of a PET_ID URI. Returns false if there is
+     * no such pet.
+     */
+    boolean queryPet(long id) throws SQLException {
+        mQueryPet.setLong(1, id);
+        ResultSet resultSet = mQueryPet.executeQuery();
+        try {
+            if (!resultSet.next()) {
+                return false;
+            }
+            readRow(resultSet, 6);
+            return true;
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * Read every column of one pet the way PetProvider did before PetStatementCache: the SQL
+     * is built and compiled again for every query, and the id bound as a String.
+     */
+    boolean queryPetUncached(long id) throws SQLException {
+        String sql = new StringBuilder("SELECT _id, name, ").append(BREED)
+                .append(", gender, weight, photo FROM pets WHERE (_id=?) AND (deleted_at IS NULL)")
+                .toString();
+        PreparedStatement query = mConnection.prepareStatement(sql);
+        try {
+            query.setString(1, String.valueOf(id));
+            ResultSet resultSet = query.executeQuery();
+            try {
+                if (!resultSet.next()) {
+                    return false;
+                }
+                readRow(resultSet, 6);
+                return true;
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            query.close();
+        }
+    }
+
+    /**
+     * Read every column of every pet, like a query of the PETS URI. Returns the number of pets.
+     */
+    int queryPets() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery(SQL_QUERY_PETS);
+            int count = 0;
+            while (resultSet.next()) {
+                readRow(resultSet, 6);
+                count++;
+            }
+            return count;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Read every pet in pages, the way PetPager and PetExporter do. Returns the number of pets.
+     */
+    int queryPages(int pageSize) throws SQLException {
+        int count = 0;
+        String lastName = null;
+        long lastId = 0;
+        while (true) {
+            PreparedStatement query;
+            if (lastName == null) {
+                query = mQueryFirstPage;
+                query.setInt(1, pageSize);
+            } else {
+                query = mQueryNextPage;
+                query.setString(1, lastName);
+                query.setString(2, lastName);
+                query.setLong(3, lastId);
+                query.setInt(4, pageSize);
+            }
+
+            int pageCount = 0;
+            ResultSet resultSet = query.executeQuery();
+            try {
+                while (resultSet.next()) {
+                    readRow(resultSet, 4);
+                    lastId = resultSet.getLong(1);
+                    lastName = resultSet.getString(2);
+                    pageCount++;
+                }
+            } finally {
+                resultSet.close();
+            }
+
+            count += pageCount;
+            if (pageCount < pageSize) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Read every pet of the given gender in pages, heaviest first, the way PetPager does with a
+     * filter. Returns the number of pets.
+     */
+    int queryFilteredPages(int gender, int pageSize) throws SQLException {
+        int count = 0;
+        boolean first = true;
+        int lastWeight = 0;
+        long lastId = 0;
+        while (true) {
+            PreparedStatement query;
+            if (first) {
+                query = mQueryFirstFilteredPage;
+                query.setInt(1, gender);
+                query.setInt(2, pageSize);
+            } else {
+                query = mQueryNextFilteredPage;
+                query.setInt(1, gender);
+                query.setInt(2, lastWeight);
+                query.setInt(3, lastWeight);
+                query.setLong(4, lastId);
+                query.setInt(5, pageSize);
+            }
+            first = false;
+
+            int pageCount = 0;
+            ResultSet resultSet = query.executeQuery();
+            try {
+                while (resultSet.next()) {
+                    readRow(resultSet, 5);
+                    lastId = resultSet.getLong(1);
+                    lastWeight = resultSet.getInt(5);
+                    pageCount++;
+                }
+            } finally {
+                resultSet.close();
+            }
+
+            count += pageCount;
+            if (pageCount < pageSize) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Read the first page of pets into a window, as the catalog does before binding its rows.
+     */
+    RowWindow queryFirstPage(int pageSize) throws SQLException {
+        mQueryFirstPage.setInt(1, pageSize);
+        ResultSet resultSet = mQueryFirstPage.executeQuery();
+        try {
+            return RowWindow.fill(resultSet, pageSize);
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * Change the weight of one pet, like PetProvider.update of a PET_ID URI.
+     */
+    int updateWeight(long id, int weight) throws SQLException {
+        mUpdateWeight.setInt(1, weight);
+        mUpdateWeight.setLong(2, id);
+        return mUpdateWeight.executeUpdate();
+    }
+
+    /**
+     * Change the weight of one pet the way PetProvider did before PetStatementCache, compiling
+     * the update every time.
+     */
+    int updateWeightUncached(long id, int weight) throws SQLException {
+        String sql = new StringBuilder("UPDATE pets SET weight=?")
+                .append(" WHERE (_id=?) AND (deleted_at IS NULL)").toString();
+        PreparedStatement update = mConnection.prepareStatement(sql);
+        try {
+            update.setInt(1, weight);
+            update.setString(2, String.valueOf(id));
+            return update.executeUpdate();
+        } finally {
+            update.close();
+        }
+    }
+
+    /**
+     * Change the breed of one pet, like PetProvider.update of a PET_ID URI with a breed.
+     */
+    int updateBreed(long id, String breed) throws SQLException {
+        Long breedId = getBreedId(breed);
+        if (breedId == null) {
+            mUpdateBreed.setNull(1, Types.INTEGER);
+        } else {
+            mUpdateBreed.setLong(1, breedId);
+        }
+        mUpdateBreed.setLong(2, id);
+        return mUpdateBreed.executeUpdate();
+    }
+
+    /**
+     * Write every pet in pages with the given writer, the way PetExporter does. Returns the
+     * number of pets written.
+     */
+    long exportPets(ExportWriter exportWriter, Writer writer, int pageSize)
+            throws SQLException, IOException {
+        long exported = 0;
+        String lastName = null;
+        long lastId = 0;
+
+        exportWriter.writeStart(writer);
+        while (true) {
+            PreparedStatement query;
+            if (exported == 0) {
+                query = mQueryFirstExportPage;
+                query.setInt(1, pageSize);
+            } else {
+                query = mQueryNextExportPage;
+                query.setString(1, lastName);
+                query.setString(2, lastName);
+                query.setLong(3, lastId);
+                query.setInt(4, pageSize);
+            }
+
+            int pageCount = 0;
+            ResultSet resultSet = query.executeQuery();
+            try {
+                while (resultSet.next()) {
+                    exportWriter.writeRow(writer, resultSet, exported);
+                    lastId = resultSet.getLong(1);
+                    lastName = resultSet.getString(2);
+                    exported++;
+                    pageCount++;
+                }
+            } finally {
+                resultSet.close();
+            }
+
+            if (pageCount < pageSize) {
+                break;
+            }
+        }
+        exportWriter.writeEnd(writer);
+        writer.flush();
+        return exported;
+    }
+
+    /**
+     * Delete every pet, like PetProvider.delete of the PETS URI: the pets are only marked as
+     * deleted.
+     */
+    int deleteAllPets() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            return statement.executeUpdate("UPDATE pets SET deleted_at = "
+                    + System.currentTimeMillis() + " WHERE deleted_at IS NULL");
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Purge every deleted pet and free their pages, like PetDbHelper's compaction once the
+     * pets are due. Returns the number of pets purged.
+     */
+    int purgeDeletedPets() throws SQLException {
+        int purged = 0;
+        int batch;
+        do {
+            mPurgeBatch.setLong(1, Long.MAX_VALUE);
+            batch = mPurgeBatch.executeUpdate();
+            purged += batch;
+        } while (batch == PURGE_BATCH_SIZE);
+
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.execute("PRAGMA incremental_vacuum");
+        } finally {
+            statement.close();
+        }
+        return purged;
+    }
+
+    /**
+     * Read the statistics by gender and the most common breeds, like a statistics screen
+     * would. Returns the number of rows read.
+     */
+    int queryStats() throws SQLException {
+        int count = 0;
+        for (PreparedStatement query : new PreparedStatement[]{mQueryGenderStats,
+                mQueryTopBreeds}) {
+            ResultSet resultSet = query.executeQuery();
+            try {
+                int columnCount = resultSet.getMetaData().getColumnCount();
+                while (resultSet.next()) {
+                    readRow(resultSet, columnCount);
+                    count++;
+                }
+            } finally {
+                resultSet.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Count the pets of every breed, like PetDbHelper.checkStats does. Returns the number of
+     * breeds.
+     */
+    int countBreeds() throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery(SQL_COUNT_BREEDS);
+            int count = 0;
+            while (resultSet.next()) {
+                readRow(resultSet, 2);
+                count++;
+            }
+            return count;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Returns the number of live pets
+     */
+    int countPets() throws SQLException {
+        return (int) queryLong("SELECT COUNT(*) FROM pets WHERE deleted_at IS NULL");
+    }
+
+    /**
+     * Returns the largest pet id, or 0 if there are no pets.
+     */
+    long maxId() throws SQLException {
+        return queryLong("SELECT IFNULL(MAX(_id), 0) FROM pets");
+    }
+
+    private long lastInsertId() throws SQLException {
+        return queryLong("SELECT last_insert_rowid()");
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery(sql);
+            resultSet.next();
+            return resultSet.getLong(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void bindRandomPet(PreparedStatement statement) throws SQLException {
+        statement.setString(1, NAMES[mRandom.nextInt(NAMES.length)] + " " + mRandom.nextInt(1000));
+        Long breedId = getBreedId(BREEDS[mRandom.nextInt(BREEDS.length)]);
+        if (breedId == null) {
+            statement.setNull(2, Types.INTEGER);
+        } else {
+            statement.setLong(2, breedId);
+        }
+        statement.setInt(3, mRandom.nextInt(3));
+        statement.setInt(4, mRandom.nextInt(60));
+        statement.setString(5, newSyncId());
+    }
+
+    /**
+     * A time ordered UUID, like PetProvider.newSyncId
+     */
+    private String newSyncId() {
+        long mostSigBits = (System.currentTimeMillis() << 16) | 0x7000
+                | (mRandom.nextInt() & 0x0fff);
+        long leastSigBits = (mRandom.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+    /**
+     * Returns the id of the given breed, adding it to the dictionary if it's new, or null for
+     * no breed, like BreedDictionary.getId.
+     */
+    private Long getBreedId(String breed) throws SQLException {
+        if (breed == null) {
+            return null;
+        }
+        Long id = mBreedIds.get(breed);
+        if (id != null) {
+            return id;
+        }
+
+        mQueryBreedId.setString(1, breed);
+        ResultSet resultSet = mQueryBreedId.executeQuery();
+        try {
+            if (resultSet.next()) {
+                id = resultSet.getLong(1);
+            }
+        } finally {
+            resultSet.close();
+        }
+        if (id == null) {
+            mInsertBreed.setString(1, breed);
+            mInsertBreed.executeUpdate();
+            id = lastInsertId();
+        }
+        mBreedIds.put(breed, id);
+        return id;
+    }
+
+    /**
+     * Read every column of the current row, the way a cursor window is filled.
+     */
+    private static void readRow(ResultSet resultSet, int columnCount) throws SQLException {
+        for (int i = 1; i <= columnCount; i++) {
+            resultSet.getObject(i);
+        }
+    }
+}